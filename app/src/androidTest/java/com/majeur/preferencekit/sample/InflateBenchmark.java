@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit.sample;
+
+import android.app.Activity;
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.majeur.preferencekit.PreferenceFragment;
+
+/**
+ * Time to add the 300 preferences of R.xml.benchmark_preferences to a screen, inflated from xml compared with
+ * created by the builder preferencekit-codegen.gradle generates from the same file. Results are logged under
+ * {@link #TAG}, run with {@code adb logcat -s PreferenceKitBenchmark}.
+ */
+public class InflateBenchmark extends ActivityInstrumentationTestCase2<SettingsActivity> {
+
+    private static final String TAG = "PreferenceKitBenchmark";
+
+    private static final int PREFERENCE_COUNT = 300;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 20;
+
+    private Activity mActivity;
+    private PreferenceFragment mFragment;
+
+    public InflateBenchmark() {
+        super(SettingsActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mActivity = getActivity();
+        mFragment = new BenchmarkFragment();
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mActivity.getFragmentManager().beginTransaction()
+                        .add(android.R.id.content, mFragment)
+                        .commit();
+                mActivity.getFragmentManager().executePendingTransactions();
+            }
+        });
+    }
+
+    public void testInflate300Preferences() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                long inflated = time("300 preferences, xml inflation", new Runnable() {
+                    @Override
+                    public void run() {
+                        resetScreen();
+                        mFragment.addPreferencesFromResource(R.xml.benchmark_preferences);
+                    }
+                });
+                assertEquals(PREFERENCE_COUNT, countPreferences(mFragment.getPreferenceScreen()));
+
+                long built = time("300 preferences, generated builder", new Runnable() {
+                    @Override
+                    public void run() {
+                        resetScreen();
+                        mFragment.addPreferencesFromBuilder(PreferenceKitScreens.BENCHMARK_PREFERENCES);
+                    }
+                });
+                assertEquals(PREFERENCE_COUNT, countPreferences(mFragment.getPreferenceScreen()));
+
+                Log.i(TAG, "300 preferences, builder speedup: " + (float) inflated / built);
+            }
+        });
+    }
+
+    private void resetScreen() {
+        mFragment.setPreferenceScreen(mFragment.getPreferenceManager().createPreferenceScreen(mActivity));
+    }
+
+    /**
+     * @return Mean duration of a run in microseconds
+     */
+    private static long time(String name, Runnable block) {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            block.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            block.run();
+        long mean = (System.nanoTime() - start) / RUNS / 1000;
+
+        Log.i(TAG, name + ": " + mean + " us");
+        return mean;
+    }
+
+    /**
+     * @return Number of preferences in the hierarchy, groups excluded
+     */
+    private static int countPreferences(PreferenceGroup group) {
+        int count = 0;
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            Preference preference = group.getPreference(i);
+            count += preference instanceof PreferenceGroup ? countPreferences((PreferenceGroup) preference) : 1;
+        }
+        return count;
+    }
+
+    public static class BenchmarkFragment extends PreferenceFragment {
+    }
+}
@@ -28,6 +28,7 @@ public class SettingsActivity extends PreferenceHeadersActivity {
         super.onCreate(savedInstanceState);
 
         addHeadersFromResources(R.xml.headers);
+        setFragmentPrefetchEnabled(true);
 
         addHeaderAt(Header.createHeaderRow("Prime version",
                 "Please buy prime to let me make some money",
@@ -23,10 +23,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Toast;
 
-import com.majeur.preferencekit.CheckBoxPreference;
-import com.majeur.preferencekit.DialogPreference;
 import com.majeur.preferencekit.ExtraButtonsPreference;
-import com.majeur.preferencekit.Preference;
 import com.majeur.preferencekit.PreferenceFragment;
 
 public class SettingsFragment extends PreferenceFragment {
@@ -58,16 +55,7 @@ public class SettingsFragment extends PreferenceFragment {
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.action_lock:
-                for (int i = 0; i < getPreferenceScreen().getPreferenceCount(); i++) {
-                    android.preference.Preference p = getPreferenceScreen().getPreference(i);
-
-                    if (p instanceof Preference)
-                        ((Preference) p).setLocked(mPreferencesLocked);
-                    else if (p instanceof DialogPreference)
-                        ((DialogPreference) p).setLocked(mPreferencesLocked);
-                    else if (p instanceof CheckBoxPreference)
-                        ((CheckBoxPreference) p).setLocked(mPreferencesLocked);
-                }
+                setPreferencesLocked(mPreferencesLocked);
                 mPreferencesLocked = !mPreferencesLocked;
                 return true;
 
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.util.Log;
+
+/**
+ * Minimal timing helper for instrumentation benchmarks. Results are logged under {@link #TAG},
+ * run with {@code adb logcat -s PreferenceKitBenchmark}.
+ */
+final class Benchmark {
+
+    static final String TAG = "PreferenceKitBenchmark";
+
+    private static final int WARMUP_RUNS = 3;
+
+    private Benchmark() {
+    }
+
+    /**
+     * Run block a few times to warm up, then measure given number of runs
+     * @return Mean duration of a run in microseconds
+     */
+    static long run(String name, int runs, Runnable block) {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            block.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            block.run();
+        long mean = (System.nanoTime() - start) / runs / 1000;
+
+        Log.i(TAG, name + ": " + mean + " us");
+        return mean;
+    }
+}
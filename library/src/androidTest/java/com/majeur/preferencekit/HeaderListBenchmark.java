@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.test.InstrumentationTestCase;
+
+import com.majeur.preferencekit.PreferenceHeadersActivity.Header;
+import com.majeur.preferencekit.PreferenceHeadersActivity.HeaderListFragment;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Header list operations with 10, 1k and 10k headers. Indexed model of {@link HeaderListFragment} is compared with
+ * the linked list it replaced, where positional access and lookup by id walked the list.
+ */
+public class HeaderListBenchmark extends InstrumentationTestCase {
+
+    private static final int RUNS = 20;
+    private static final int LOOKUPS = 1000;
+
+    public void test10Headers() {
+        benchmark(10);
+    }
+
+    public void test1000Headers() {
+        benchmark(1000);
+    }
+
+    public void test10000Headers() {
+        benchmark(10000);
+    }
+
+    private void benchmark(final int count) {
+        final List<Header> headers = createHeaders(count);
+
+        Benchmark.run(count + " headers, add all", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                new HeaderListFragment().addHeaders(headers);
+            }
+        });
+
+        final HeaderListFragment fragment = new HeaderListFragment();
+        fragment.addHeaders(headers);
+        final LinkedList<Header> linkedHeaders = new LinkedList<>(headers);
+        assertEquals(count, fragment.getHeaderCount());
+
+        Benchmark.run(count + " headers, add all then one at front", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                HeaderListFragment fragment = new HeaderListFragment();
+                fragment.addHeaders(headers);
+                fragment.addHeaderAt(createHeader(-1), 0);
+            }
+        });
+
+        Benchmark.run(count + " headers, " + LOOKUPS + " getHeaderAt, before", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    linkedHeaders.get(i * 7919 % count);
+            }
+        });
+
+        Benchmark.run(count + " headers, " + LOOKUPS + " getHeaderAt, after", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    fragment.getHeaderAt(i * 7919 % count);
+            }
+        });
+
+        Benchmark.run(count + " headers, " + LOOKUPS + " findHeaderById, before", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    assertNotNull(findLinearly(linkedHeaders, i * 7919 % count));
+            }
+        });
+
+        Benchmark.run(count + " headers, " + LOOKUPS + " findHeaderById, after", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LOOKUPS; i++)
+                    assertNotNull(fragment.findHeaderById(i * 7919 % count));
+            }
+        });
+    }
+
+    /**
+     * Headers with ids from 0, a separator every 10 headers
+     */
+    private static List<Header> createHeaders(int count) {
+        List<Header> headers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            headers.add(i % 10 == 0 ? Header.createHeaderSeparator("Separator " + i) : createHeader(i));
+        // Separators are looked up too
+        for (int i = 0; i < count; i += 10)
+            headers.get(i).id = i;
+        return headers;
+    }
+
+    private static Header createHeader(int id) {
+        return Header.createHeaderRow("Header " + id, "Summary", 0, false, null, id);
+    }
+
+    private static Header findLinearly(List<Header> headers, int id) {
+        for (Header header : headers) {
+            if (header.id == id)
+                return header;
+        }
+        return null;
+    }
+}
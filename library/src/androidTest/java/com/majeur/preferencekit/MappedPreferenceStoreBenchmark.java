@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.test.InstrumentationTestCase;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cold open time of {@link MappedPreferenceStore} compared with the XML path: opening a store and reading every
+ * value, against parsing the same values from a file in SharedPreferences XML format with the platform pull parser,
+ * the way SharedPreferences loads them before the first read.
+ */
+public class MappedPreferenceStoreBenchmark extends InstrumentationTestCase {
+
+    private static final int RUNS = 50;
+
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(getInstrumentation().getTargetContext().getCacheDir(), "benchmark");
+        mDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mDir.listFiles())
+            file.delete();
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testColdOpen50() throws IOException {
+        benchmark(50);
+    }
+
+    public void testColdOpen500() throws IOException {
+        benchmark(500);
+    }
+
+    public void testColdOpen5000() throws IOException {
+        benchmark(5000);
+    }
+
+    private void benchmark(final int count) throws IOException {
+        final File storeFile = new File(mDir, "store");
+        final File xmlFile = new File(mDir, "prefs.xml");
+
+        MappedPreferenceStore store = new MappedPreferenceStore(storeFile);
+        PreferenceStore.Editor editor = store.edit();
+        Writer writer = new FileWriter(xmlFile);
+        try {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (int i = 0; i < count; i++) {
+                switch (i % 3) {
+                    case 0:
+                        editor.putInt(intKey(i), i);
+                        writer.write("    <int name=\"" + intKey(i) + "\" value=\"" + i + "\" />\n");
+                        break;
+                    case 1:
+                        editor.putLong(longKey(i), i);
+                        writer.write("    <long name=\"" + longKey(i) + "\" value=\"" + i + "\" />\n");
+                        break;
+                    default:
+                        editor.putString(stringKey(i), stringValue(i));
+                        writer.write("    <string name=\"" + stringKey(i) + "\">" + stringValue(i) + "</string>\n");
+                        break;
+                }
+            }
+            writer.write("</map>\n");
+        } finally {
+            writer.close();
+        }
+        editor.apply();
+        store.close();
+
+        Benchmark.run(count + " values, MappedPreferenceStore cold open", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MappedPreferenceStore store = new MappedPreferenceStore(storeFile);
+                    for (int i = 0; i < count; i++) {
+                        switch (i % 3) {
+                            case 0:
+                                assertEquals(i, store.getInt(intKey(i), -1));
+                                break;
+                            case 1:
+                                assertEquals(i, store.getLong(longKey(i), -1));
+                                break;
+                            default:
+                                assertEquals(stringValue(i), store.getString(stringKey(i), null));
+                                break;
+                        }
+                    }
+                    store.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Benchmark.run(count + " values, SharedPreferences xml parse", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertEquals(count, readXml(xmlFile).size());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } catch (XmlPullParserException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build the value map as SharedPreferences does, values are parsed from attributes and text
+     */
+    private static Map<String, Object> readXml(File file) throws IOException, XmlPullParserException {
+        Map<String, Object> values = new HashMap<>();
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file), 16 * 1024);
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(inputStream, "UTF-8");
+
+            int eventType;
+            while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (eventType != XmlPullParser.START_TAG)
+                    continue;
+
+                String name = parser.getAttributeValue(null, "name");
+                if ("int".equals(parser.getName()))
+                    values.put(name, Integer.parseInt(parser.getAttributeValue(null, "value")));
+                else if ("long".equals(parser.getName()))
+                    values.put(name, Long.parseLong(parser.getAttributeValue(null, "value")));
+                else if ("string".equals(parser.getName()))
+                    values.put(name, parser.nextText());
+            }
+        } finally {
+            inputStream.close();
+        }
+        return values;
+    }
+
+    private static String intKey(int i) {
+        return "int_preference_" + i;
+    }
+
+    private static String longKey(int i) {
+        return "long_preference_" + i;
+    }
+
+    private static String stringKey(int i) {
+        return "string_preference_" + i;
+    }
+
+    private static String stringValue(int i) {
+        return "value of string preference " + i;
+    }
+}
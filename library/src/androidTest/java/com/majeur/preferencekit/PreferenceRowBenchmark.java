@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+
+/**
+ * Create and bind time per row type. Rows built by {@link PreferenceRowLayout} are compared with the nested
+ * layouts rows were inflated from before, preference_base with its widget inflated or added into pk_stub.
+ * Legacy rows are bound by the same preference, through the framework ids they share with flat rows.
+ */
+public class PreferenceRowBenchmark extends InstrumentationTestCase {
+
+    private static final int RUNS = 200;
+
+    private Context mContext;
+    private LayoutInflater mInflater;
+    private ViewGroup mParent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation().getTargetContext(), R.style.Theme_AppCompat_Light);
+        mInflater = LayoutInflater.from(mContext);
+        mParent = new ListView(mContext);
+    }
+
+    @UiThreadTest
+    public void testPreferenceRow() {
+        benchmark(new Preference(mContext), new LegacyRow() {
+            @Override
+            public View create() {
+                return inflateBase();
+            }
+        });
+    }
+
+    @UiThreadTest
+    public void testCheckBoxRow() {
+        benchmark(new CheckBoxPreference(mContext), new LegacyRow() {
+            @Override
+            public View create() {
+                View view = inflateBase();
+                mInflater.inflate(R.layout.widget_checkbox, (ViewGroup) view.findViewById(R.id.pk_stub));
+                return view;
+            }
+        });
+    }
+
+    @UiThreadTest
+    public void testColorPickerRow() {
+        benchmark(new ColorPickerPreference(mContext), new LegacyRow() {
+            @Override
+            public View create() {
+                View view = inflateBase();
+                int px = Utils.dpToPx(mContext, 40);
+                ((ViewGroup) view.findViewById(R.id.pk_stub)).addView(new CircleColorIndicator(mContext),
+                        new ViewGroup.LayoutParams(px, px));
+                return view;
+            }
+        });
+    }
+
+    @UiThreadTest
+    public void testSeekBarRow() {
+        benchmark(new SeekBarPreference(mContext), new LegacyRow() {
+            @Override
+            public View create() {
+                ViewGroup view = (ViewGroup) inflateBase();
+                ViewGroup widgetContainer = new FrameLayout(mContext);
+                view.addView(widgetContainer, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        ViewGroup.LayoutParams.MATCH_PARENT));
+                mInflater.inflate(R.layout.bottom_widget_seekbar, widgetContainer);
+                return view;
+            }
+        });
+    }
+
+    private void benchmark(final android.preference.Preference preference, final LegacyRow legacyRow) {
+        preference.setTitle("Title");
+        preference.setSummary("Summary");
+        String name = preference.getClass().getSimpleName();
+
+        Benchmark.run(name + " create+bind, before", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                measure(preference.getView(legacyRow.create(), mParent));
+            }
+        });
+
+        Benchmark.run(name + " create+bind, after", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                measure(preference.getView(null, mParent));
+            }
+        });
+
+        final View legacyView = legacyRow.create();
+        Benchmark.run(name + " bind, before", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                measure(preference.getView(legacyView, mParent));
+            }
+        });
+
+        final View view = preference.getView(null, mParent);
+        assertTrue(view instanceof PreferenceRowLayout);
+        Benchmark.run(name + " bind, after", RUNS, new Runnable() {
+            @Override
+            public void run() {
+                measure(preference.getView(view, mParent));
+            }
+        });
+    }
+
+    private View inflateBase() {
+        return mInflater.inflate(R.layout.preference_base, mParent, false);
+    }
+
+    private static void measure(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    private interface LegacyRow {
+        View create();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * Value changes bind the row of their preference only, checked through {@link PreferenceKit#getRowBindCount()}
+ */
+public class RowRebindTest extends InstrumentationTestCase {
+
+    private static final int ROWS = 5;
+
+    private Context mContext;
+    private LinearLayout mParent;
+    private CheckBoxPreference[] mPreferences;
+    private View[] mRows;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation().getTargetContext(), R.style.Theme_AppCompat_Light);
+        mParent = new LinearLayout(mContext);
+
+        mPreferences = new CheckBoxPreference[ROWS];
+        mRows = new View[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            mPreferences[i] = new CheckBoxPreference(mContext);
+            mPreferences[i].setTitle("Title " + i);
+            mRows[i] = mPreferences[i].getView(null, mParent);
+            mParent.addView(mRows[i]);
+        }
+    }
+
+    @UiThreadTest
+    public void testValueChangeBindsOneRow() {
+        long count = PreferenceKit.getRowBindCount();
+
+        mPreferences[2].setChecked(true);
+
+        assertEquals(count + 1, PreferenceKit.getRowBindCount());
+    }
+
+    @UiThreadTest
+    public void testUnchangedValueBindsNoRow() {
+        long count = PreferenceKit.getRowBindCount();
+
+        mPreferences[2].setChecked(false);
+
+        assertEquals(count, PreferenceKit.getRowBindCount());
+    }
+
+    @UiThreadTest
+    public void testRecycledRowIsNotBound() {
+        // Row of first preference is now shown for second one
+        mParent.removeView(mRows[1]);
+        mPreferences[1].getView(mRows[0], mParent);
+        long count = PreferenceKit.getRowBindCount();
+
+        mPreferences[0].setTitle("Changed");
+
+        assertEquals(count, PreferenceKit.getRowBindCount());
+        assertEquals("Title 1", ((TextView) mRows[0].findViewById(android.R.id.title)).getText().toString());
+    }
+
+    @UiThreadTest
+    public void testDetachedRowIsNotBound() {
+        mParent.removeView(mRows[3]);
+        long count = PreferenceKit.getRowBindCount();
+
+        mPreferences[3].setChecked(true);
+
+        assertEquals(count, PreferenceKit.getRowBindCount());
+    }
+}
@@ -21,8 +21,6 @@ import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.FrameLayout;
-import android.widget.LinearLayout;
 
 /**
  * Preference that provide a way to add a widget as a second row of the preference.
@@ -47,16 +45,11 @@ public class BottomWidgetPreference extends Preference {
 
     @Override
     protected View onCreateView(ViewGroup parent) {
-        ViewGroup rootView = (ViewGroup) super.onCreateView(parent);
+        PreferenceRowLayout rootView = (PreferenceRowLayout) super.onCreateView(parent);
 
-        ViewGroup widgetContainer = new FrameLayout(getContext());
-        rootView.addView(widgetContainer, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
-                ViewGroup.LayoutParams.MATCH_PARENT));
-
-        mWidgetView = onCreateBottomWidgetView(widgetContainer);
-
-        if (mWidgetView != null)
-            widgetContainer.addView(mWidgetView);
+        // Row generates layout params from widget xml, with margins
+        mWidgetView = onCreateBottomWidgetView(rootView);
+        rootView.setBottomView(mWidgetView);
 
         return rootView;
     }
@@ -18,10 +18,11 @@ package com.majeur.preferencekit;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.support.v7.widget.AppCompatCheckBox;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CompoundButton;
 
 /**
  * Lockable checkbox preference
@@ -45,19 +46,31 @@ public class CheckBoxPreference extends android.preference.CheckBoxPreference im
     }
 
     /**
-     * We add a checkbox to widget container with android internal checkbox id
+     * We add a checkbox to widget slot with android internal checkbox id
      * to allow parent class to modify checkbox state
      */
     @Override
     protected View onCreateView(ViewGroup parent) {
-        View view = mDelegate.onCreateView(parent);
+        PreferenceRowLayout view = (PreferenceRowLayout) mDelegate.onCreateView(parent);
 
-        ViewGroup stub = (ViewGroup) view.findViewById(R.id.pk_stub);
-        LayoutInflater.from(getContext()).inflate(R.layout.widget_checkbox, stub);
+        CompoundButton button = onCreateCompoundButton(getContext());
+        button.setId(android.R.id.checkbox);
+        button.setFocusable(false);
+        button.setClickable(false);
+        button.setBackgroundDrawable(null);
+        view.setWidgetView(button, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
 
         return view;
     }
 
+    /**
+     * @return Button shown in widget slot
+     */
+    CompoundButton onCreateCompoundButton(Context context) {
+        // Built in code, AppCompat inflater cannot swap in its tinted widget
+        return new AppCompatCheckBox(context);
+    }
+
     @Override
     protected void onBindView(View view) {
         mDelegate.onBindView(view);
@@ -83,6 +96,22 @@ public class CheckBoxPreference extends android.preference.CheckBoxPreference im
         notifyChanged();
     }
 
+    @Override
+    public void notifyListChangedInternal() {
+        if (!PreferenceKit.isRefreshSuppressed())
+            super.notifyChanged();
+    }
+
+    /**
+     * Not forwarded while refresh is suppressed by a bulk operation, which refreshes the whole list once done.
+     * Otherwise only the row of this preference is bound again
+     */
+    @Override
+    protected void notifyChanged() {
+        if (!PreferenceKit.isRefreshSuppressed() && !mDelegate.rebindInPlace())
+            super.notifyChanged();
+    }
+
     @Override
     public void setLockedText(String s) {
         mDelegate.setLockedText(s);
@@ -102,4 +131,18 @@ public class CheckBoxPreference extends android.preference.CheckBoxPreference im
     public boolean isLocked() {
         return mDelegate.isLocked();
     }
+
+    /**
+     * Set the tag selecting this preference in {@link PreferenceKit#setLockedByTag(android.preference.PreferenceGroup, boolean, String)}
+     * @param tag Lock tag, or null
+     */
+    @Override
+    public void setLockTag(String tag) {
+        mDelegate.setLockTag(tag);
+    }
+
+    @Override
+    public String getLockTag() {
+        return mDelegate.getLockTag();
+    }
 }
@@ -29,6 +29,7 @@ import android.view.View;
 class CircleColorIndicator extends View {
 
     private Paint mPaint, mShadowPaint;
+    private int mShadowWidth;
 
     public CircleColorIndicator(Context context) {
         super(context);
@@ -50,6 +51,7 @@ class CircleColorIndicator extends View {
         mShadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mShadowPaint.setColor(Color.DKGRAY);
         mShadowPaint.setAlpha(100);
+        mShadowWidth = ResolvedStyle.get(getContext()).dpToPx(3.5f);
     }
 
     public void setColor(int color) {
@@ -62,7 +64,7 @@ class CircleColorIndicator extends View {
         super.onDraw(canvas);
         int px = Math.min(canvas.getWidth(), canvas.getHeight()) / 2;
         canvas.drawCircle(px, px, px, mShadowPaint);
-        canvas.drawCircle(px, px, px - Utils.dpToPx(getContext(), 3.5f), mPaint);
+        canvas.drawCircle(px, px, px - mShadowWidth, mPaint);
     }
 
     @Override
@@ -38,13 +38,11 @@ public class CirclePickerPreference extends DialogPreference {
     public CirclePickerPreference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_circlepicker, defStyleAttr, 0);
-            mMax = typedArray.getInteger(R.styleable.preference_circlepicker_maxValue, 10);
-            mMin = typedArray.getInteger(R.styleable.preference_circlepicker_minValue, 1);
-            mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_circlepicker_showValueInSummary, false);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_circlepicker, defStyleAttr, 0);
+        mMax = typedArray.getInteger(R.styleable.preference_circlepicker_maxValue, 10);
+        mMin = typedArray.getInteger(R.styleable.preference_circlepicker_minValue, 1);
+        mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_circlepicker_showValueInSummary, false);
+        typedArray.recycle();
     }
 
     public CirclePickerPreference(Context context, AttributeSet attrs) {
@@ -66,15 +64,31 @@ public class CirclePickerPreference extends DialogPreference {
 
     @Override
     protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
-        int value = restorePersistedValue ? getPersistedInt(mMin) : (Integer) defaultValue;
-        setNewValue(value);
+        if (getPersistence().shouldRestore(defaultValue)) {
+            restoreValue(getPersistence().getInt(mMin));
+        } else {
+            restoreValue((Integer) defaultValue);
+            getPersistence().writeInt(mValue);
+        }
+    }
+
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        int intValue = (Integer) value;
+        return intValue >= mMin && intValue <= mMax;
     }
 
     protected void setNewValue(int newValue) {
-        if (isPersistent() && callChangeListener(newValue))
-            persistInt(newValue);
+        getPersistence().persistInt(newValue);
+        restoreValue(newValue);
+        getPersistence().notifyValueChanged(newValue);
+    }
 
-        mValue = newValue;
+    /**
+     * Update preference state without persisting the value
+     */
+    protected void restoreValue(int value) {
+        mValue = value;
 
         if (mShowValueInSummary)
             setSummary(String.valueOf(mValue));
@@ -73,14 +73,15 @@ class CirclePickerView extends View {
 
     private void init(Context context) {
         mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mSelectorColor = Utils.getAttrColor(getContext(), R.attr.colorAccent);
-        mWheelColor = getResources().getColor(R.color.pk_window_light);
-        mDefaultCircleRadius = getResources().getDimensionPixelSize(R.dimen.pk_circlepicker_radius);
-        mDefaultSelectionCircleRadius = Utils.dpToPx(context, 25);
+        ResolvedStyle style = ResolvedStyle.get(context);
+        mSelectorColor = style.accentColor;
+        mWheelColor = style.circlePickerWheelColor;
+        mDefaultCircleRadius = style.circlePickerRadius;
+        mDefaultSelectionCircleRadius = style.dpToPx(25);
 
         mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mTextPaint.setColor(Color.BLACK);//Utils.getAttrColor(context, android.R.attr.textColor));
-        mTextPaint.setTextSize(Utils.spToPx(context, 18));//Utils.getAttrDimen(context, android.R.attr.textSize));
+        mTextPaint.setTextSize(style.spToPx(18));//Utils.getAttrDimen(context, android.R.attr.textSize));
 
         mIndicatorAnimator = new ValueAnimator();
         mIndicatorAnimator.setDuration(200);
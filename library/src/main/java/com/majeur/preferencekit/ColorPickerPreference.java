@@ -45,14 +45,12 @@ public class ColorPickerPreference extends DialogPreference {
     public ColorPickerPreference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_colorpicker, defStyleAttr, 0);
-            mAlphaAllowed = typedArray.getBoolean(R.styleable.preference_colorpicker_alphaAllowed, true);
-            mSVAllowed = typedArray.getBoolean(R.styleable.preference_colorpicker_saturationAndValueAllowed, true);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_colorpicker, defStyleAttr, 0);
+        mAlphaAllowed = typedArray.getBoolean(R.styleable.preference_colorpicker_alphaAllowed, true);
+        mSVAllowed = typedArray.getBoolean(R.styleable.preference_colorpicker_saturationAndValueAllowed, true);
+        typedArray.recycle();
 
-        mDefaultValue = Utils.getAttrColor(context, R.attr.colorAccent);
+        mDefaultValue = ResolvedStyle.get(context).accentColor;
     }
 
     public ColorPickerPreference(Context context, AttributeSet attrs) {
@@ -67,6 +65,10 @@ public class ColorPickerPreference extends DialogPreference {
         mAlphaAllowed = allowed;
     }
 
+    public void setSaturationAndValueAllowed(boolean allowed) {
+        mSVAllowed = allowed;
+    }
+
     /**
      * Provide the default value to the system
      */
@@ -82,18 +84,25 @@ public class ColorPickerPreference extends DialogPreference {
 
     @Override
     protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
-        int value = restorePersistedValue ? getPersistedInt(mDefaultValue) : (Integer) defaultValue;
-        setNewValue(value);
+        if (getPersistence().shouldRestore(defaultValue)) {
+            restoreValue(getPersistence().getInt(mDefaultValue));
+        } else {
+            restoreValue((Integer) defaultValue);
+            getPersistence().writeInt(mValue);
+        }
     }
 
     private void setNewValue(int newValue) {
-        if (isPersistent() && callChangeListener(newValue))
-            persistInt(newValue);
+        getPersistence().persistInt(newValue);
+        restoreValue(newValue);
+        getPersistence().notifyValueChanged(newValue);
+    }
 
-        mValue = newValue;
+    private void restoreValue(int value) {
+        mValue = value;
 
         if (mColorIndicator != null)
-            mColorIndicator.setColor(newValue);
+            mColorIndicator.setColor(value);
     }
 
     @Override
@@ -131,12 +140,11 @@ public class ColorPickerPreference extends DialogPreference {
 
     @Override
     protected View onCreateView(ViewGroup parent) {
-        View view = super.onCreateView(parent);
+        PreferenceRowLayout view = (PreferenceRowLayout) super.onCreateView(parent);
         mColorIndicator = new CircleColorIndicator(getContext());
 
-        ViewGroup stub = (ViewGroup) view.findViewById(R.id.pk_stub);
-        int px = Utils.dpToPx(getContext(), 40);
-        stub.addView(mColorIndicator, new ViewGroup.LayoutParams(px, px));
+        int px = ResolvedStyle.get(getContext()).dpToPx(40);
+        view.setWidgetView(mColorIndicator, px, px);
         return view;
     }
 
@@ -18,17 +18,13 @@ package com.majeur.preferencekit;
 
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.graphics.Color;
-import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.preference.Preference;
 import android.util.AttributeSet;
 import android.util.TypedValue;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.TextView;
 
 /**
  * Class used to keep one piece of code when we extend multiple framework classes.
@@ -41,6 +37,10 @@ class CommonPreferenceDelegate implements Lockable {
 
     private boolean mLocked;
     private String mLockedText;
+    private String mLockTag;
+
+    // Row this preference was last bound to, it may since have been bound to another preference
+    private View mBoundView;
 
     CommonPreferenceDelegate(Preference preference) {
         if (!(preference instanceof Delegatable))
@@ -50,12 +50,11 @@ class CommonPreferenceDelegate implements Lockable {
     }
 
     public void init(Context context, AttributeSet attrs) {
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_base, 0, 0);
-            mLocked = typedArray.getBoolean(R.styleable.preference_base_locked, false);
-            mLockedText = typedArray.getString(R.styleable.preference_base_lockedText);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_base, 0, 0);
+        mLocked = typedArray.getBoolean(R.styleable.preference_base_locked, false);
+        mLockedText = typedArray.getString(R.styleable.preference_base_lockedText);
+        mLockTag = typedArray.getString(R.styleable.preference_base_lockTag);
+        typedArray.recycle();
         setLocked(mLocked);
 
         if (mLockedText == null) // We set the default icon
@@ -63,17 +62,44 @@ class CommonPreferenceDelegate implements Lockable {
     }
 
     public View onCreateView(ViewGroup parent) {
-        return LayoutInflater.from(mPreference.getContext()).inflate(R.layout.preference_base, parent, false);
+        return new PreferenceRowLayout(mPreference.getContext());
     }
 
     public void onBindView(View view) {
+        PreferenceKit.onRowBound();
+        mBoundView = view;
+        view.setTag(R.id.pk_bound_preference, mPreference);
+
         ((Delegatable) mPreference).superOnBindView(view);
-        TextView textView = (TextView) view.findViewById(R.id.pk_locked_view);
-        textView.setBackgroundColor(Utils.getAttrColor(mPreference.getContext(), R.attr.colorAccent));
-        textView.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
-        textView.setTextColor(Color.WHITE);
-        textView.setText(mLockedText);
-        textView.setVisibility(mLocked ? View.VISIBLE : View.GONE);
+        // Badge is only created for locked rows, rows of subclass layouts have none
+        if (view instanceof PreferenceRowLayout) {
+            if (mLocked)
+                ((PreferenceRowLayout) view).showLockBadge(mLockedText);
+            else
+                ((PreferenceRowLayout) view).hideLockBadge();
+        }
+    }
+
+    /**
+     * Bind again the row of this preference only, instead of notifying the list, which binds every shown row.
+     * @return false if this preference has no row currently shown, the list must then be notified
+     */
+    boolean rebindInPlace() {
+        if (mBoundView == null)
+            return false;
+
+        if (mBoundView.getTag(R.id.pk_bound_preference) != mPreference) {
+            // Row has been recycled for another preference
+            mBoundView = null;
+            return false;
+        }
+
+        ViewGroup parent = (ViewGroup) mBoundView.getParent();
+        if (parent == null)
+            return false;
+
+        mPreference.getView(mBoundView, parent);
+        return true;
     }
 
     @Override
@@ -89,7 +115,13 @@ class CommonPreferenceDelegate implements Lockable {
     @Override
     public void setLocked(boolean locked) {
         mLocked = locked;
-        ((Delegatable) mPreference).superSetEnabled(!locked);
+        // Row is bound once below
+        PreferenceKit.suppressRefresh();
+        try {
+            ((Delegatable) mPreference).superSetEnabled(!locked);
+        } finally {
+            PreferenceKit.resumeRefresh();
+        }
         ((Delegatable) mPreference).notifyChangedInternal();
     }
 
@@ -98,6 +130,16 @@ class CommonPreferenceDelegate implements Lockable {
         return mLocked;
     }
 
+    @Override
+    public void setLockTag(String tag) {
+        mLockTag = tag;
+    }
+
+    @Override
+    public String getLockTag() {
+        return mLockTag;
+    }
+
 
     public void setEnabled(boolean enabled) {
         if (!mLocked)
@@ -111,5 +153,10 @@ class CommonPreferenceDelegate implements Lockable {
         void superOnBindView(View view);
 
         void notifyChangedInternal();
+
+        /**
+         * Notify the list even if the row of this preference can be bound in place, so that all rows are bound
+         */
+        void notifyListChangedInternal();
     }
 }
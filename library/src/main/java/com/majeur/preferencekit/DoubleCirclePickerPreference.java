@@ -17,6 +17,7 @@
 package com.majeur.preferencekit;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
@@ -25,31 +26,103 @@ import android.view.LayoutInflater;
 import android.view.View;
 
 /**
- * Simple class that provide built-in preference with numberPicker as dialog
+ * Simple class that provide built-in preference with numberPicker as dialog.
+ * The two values are persisted as a single long, see {@link #packValues(int, int)}.
+ * Values persisted in the legacy "value1xvalue2" string format are migrated when read. Change listener still
+ * receives the legacy string. Reading the key with {@link SharedPreferences#getString(String, String)} no longer
+ * works once migrated, use {@link #getPersistedValues(PreferenceStore, String, long)} instead.
  */
 public class DoubleCirclePickerPreference extends DialogPreference {
 
     /**
-     * Create a string to be persisted that contains the two values.
+     * Pack the two values in a single long, as persisted by this preference
      * @param value1 first value (corresponds to the first picker)
      * @param value2 second value (corresponds to the second picker)
-     * @return string to be persisted
+     * @return packed values
      */
+    public static long packValues(int value1, int value2) {
+        return ((long) value1 << 32) | (value2 & 0xffffffffL);
+    }
+
+    /**
+     * @param packedValues values packed with {@link #packValues(int, int)}
+     * @return first value
+     */
+    public static int unpackFirstValue(long packedValues) {
+        return (int) (packedValues >> 32);
+    }
+
+    /**
+     * @param packedValues values packed with {@link #packValues(int, int)}
+     * @return second value
+     */
+    public static int unpackSecondValue(long packedValues) {
+        return (int) packedValues;
+    }
+
+    /**
+     * Read values persisted by this preference, whatever format they have been persisted in
+     * @param store Store the preference persists to
+     * @param key Preference key
+     * @param defaultValues Values packed with {@link #packValues(int, int)}, returned if nothing is persisted
+     * @return Persisted values packed with {@link #packValues(int, int)}
+     */
+    public static long getPersistedValues(@NonNull PreferenceStore store, String key, long defaultValues) {
+        try {
+            return store.getLong(key, defaultValues);
+        } catch (ClassCastException e) {
+            return parseLegacyData(store.getString(key, null), defaultValues);
+        }
+    }
+
+    /**
+     * Same as {@link #getPersistedValues(PreferenceStore, String, long)}. Values are read from the store set
+     * through {@link PreferenceKit#setPreferenceStore(PreferenceStore)} if any, as preferences persist to it
+     * @param preferences SharedPreferences the preference persists to
+     */
+    public static long getPersistedValues(SharedPreferences preferences, String key, long defaultValues) {
+        PreferenceStore store = PreferenceKit.getPreferenceStore();
+        return getPersistedValues(store != null ? store : new SharedPreferencesStore(preferences), key, defaultValues);
+    }
+
+    /**
+     * Create a string that contains the two values, in legacy format.
+     * @param value1 first value (corresponds to the first picker)
+     * @param value2 second value (corresponds to the second picker)
+     * @return legacy string
+     * @deprecated Values are now persisted as a long, use {@link #packValues(int, int)}
+     */
+    @Deprecated
     public static String createDataToPersist(int value1, int value2) {
         return value1 + "x" + value2;
     }
 
     /**
-     * Decode the persisted value to provide the two integers that had been persisted
-     * @param data persisted data
+     * Decode a legacy string to provide the two integers it contains
+     * @param data legacy string
      * @return a {@link android.util.Pair} which contains the two values
+     * @deprecated Values are now persisted as a long, use {@link #getPersistedValues(PreferenceStore, String, long)}
      */
+    @Deprecated
     public static Pair<Integer, Integer> getValuesFromPersistedData(String data) {
         String[] strings = data.split("x");
         if (strings.length != 2) return null;
         return new Pair<>(Integer.parseInt(strings[0]), Integer.parseInt(strings[1]));
     }
 
+    private static long parseLegacyData(String data, long defaultValues) {
+        int separator = data != null ? data.indexOf('x') : -1;
+        if (separator == -1)
+            return defaultValues;
+
+        try {
+            return packValues(Integer.parseInt(data.substring(0, separator)),
+                    Integer.parseInt(data.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return defaultValues;
+        }
+    }
+
     private int mMin1, mMin2;
     private int mMax1, mMax2;
     private int mValue1, mValue2;
@@ -61,15 +134,13 @@ public class DoubleCirclePickerPreference extends DialogPreference {
     public DoubleCirclePickerPreference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_doublecirclepicker, defStyleAttr, 0);
-            mMax1 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_maxValue1, 10);
-            mMin1 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_minValue1, 1);
-            mMax2 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_maxValue2, 10);
-            mMin2 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_minValue2, 1);
-            mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_doublecirclepicker_showValueInSummary, false);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_doublecirclepicker, defStyleAttr, 0);
+        mMax1 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_maxValue1, 10);
+        mMin1 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_minValue1, 1);
+        mMax2 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_maxValue2, 10);
+        mMin2 = typedArray.getInteger(R.styleable.preference_doublecirclepicker_minValue2, 1);
+        mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_doublecirclepicker_showValueInSummary, false);
+        typedArray.recycle();
     }
 
     public DoubleCirclePickerPreference(Context context, AttributeSet attrs) {
@@ -80,22 +151,65 @@ public class DoubleCirclePickerPreference extends DialogPreference {
         this(context, null, 0);
     }
 
+    /**
+     * Default value is declared in legacy "value1xvalue2" format
+     */
+    @Override
+    protected Object onGetDefaultValue(TypedArray a, int index) {
+        return a.getString(index);
+    }
+
     @Override
     protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
-        String data = restorePersistedValue ? getPersistedString((String) defaultValue) : (String) defaultValue;
+        long values = parseLegacyData((String) defaultValue, packValues(mMin1, mMin2));
+
+        if (getPersistence().shouldRestore(defaultValue)) {
+            values = readPersistedValues(values);
+            restoreValue(unpackFirstValue(values), unpackSecondValue(values));
+        } else {
+            restoreValue(unpackFirstValue(values), unpackSecondValue(values));
+            getPersistence().writeLong(values);
+        }
+    }
 
-        Pair<Integer, Integer> values = getValuesFromPersistedData(data);
-        setNewValue(values.first, values.second);
+    private long readPersistedValues(long defaultValues) {
+        try {
+            return getPersistence().getLong(defaultValues);
+        } catch (ClassCastException e) {
+            // Legacy string format, replace it by packed values
+            long values = parseLegacyData(getPersistence().getString(null), defaultValues);
+            getPersistence().writeLong(values);
+            return values;
+        }
     }
 
-    private void setNewValue(int newValue1, int newValue2) {
-        final String persistedValue = createDataToPersist(newValue1, newValue2);
+    /**
+     * Change listener receives values in the legacy "value1xvalue2" format, as before they were persisted as a long
+     */
+    @Override
+    public boolean callChangeListenerInternal(Object newValue) {
+        long values = (Long) newValue;
+        return super.callChangeListenerInternal(unpackFirstValue(values) + "x" + unpackSecondValue(values));
+    }
 
-        if (isPersistent() && callChangeListener(persistedValue))
-            persistString(persistedValue);
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        long values = (Long) value;
+        int value1 = unpackFirstValue(values);
+        int value2 = unpackSecondValue(values);
+        return value1 >= mMin1 && value1 <= mMax1 && value2 >= mMin2 && value2 <= mMax2;
+    }
+
+    private void setNewValue(int newValue1, int newValue2) {
+        long packedValues = packValues(newValue1, newValue2);
+        getPersistence().persistLong(packedValues);
+        restoreValue(newValue1, newValue2);
+        getPersistence().notifyValueChanged(packedValues);
+    }
 
-        mValue1 = newValue1;
-        mValue2 = newValue2;
+    private void restoreValue(int value1, int value2) {
+        mValue1 = value1;
+        mValue2 = value2;
 
         if (mShowValueInSummary)
             setSummary(mValue1 + " - " + mValue2);
@@ -166,7 +280,22 @@ public class DoubleCirclePickerPreference extends DialogPreference {
      * @return second picker current value
      */
     public int getSecondPickerValue() {
-        return mValue1;
+        return mValue2;
+    }
+
+    /**
+     * Set the value of both pickers
+     * @param packedValues values packed with {@link #packValues(int, int)}
+     */
+    public void setPackedValues(long packedValues) {
+        setNewValue(unpackFirstValue(packedValues), unpackSecondValue(packedValues));
+    }
+
+    /**
+     * @return current values packed with {@link #packValues(int, int)}
+     */
+    public long getPackedValues() {
+        return packValues(mValue1, mValue2);
     }
 
     /**
@@ -59,13 +59,11 @@ abstract class EntrySetPreference extends BottomWidgetPreference {
     }
 
     private void init(Context context, AttributeSet attrs) {
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_entryset, 0, 0);
-            mEntries = typedArray.getTextArray(R.styleable.preference_entryset_entries);
-            mEntryValues = typedArray.getTextArray(R.styleable.preference_entryset_entryValues);
-            mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_entryset_showValueInSummary, false);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_entryset, 0, 0);
+        mEntries = typedArray.getTextArray(R.styleable.preference_entryset_entries);
+        mEntryValues = typedArray.getTextArray(R.styleable.preference_entryset_entryValues);
+        mShowValueInSummary = typedArray.getBoolean(R.styleable.preference_entryset_showValueInSummary, false);
+        typedArray.recycle();
     }
 
     /**
@@ -88,9 +86,24 @@ abstract class EntrySetPreference extends BottomWidgetPreference {
         if (STRING_DEFAULT.equals(defaultValue) || defaultValue == null)
             defaultValue = mEntryValues[0].toString();
 
-        String value = restorePersistedValue ? getPersistedString((String) defaultValue) : (String) defaultValue;
+        if (getPersistence().shouldRestore(defaultValue)) {
+            restoreValue(getPersistence().getString((String) defaultValue));
+        } else {
+            restoreValue((String) defaultValue);
+            getPersistence().writeString(mValue.toString());
+        }
+    }
 
-        setValue(value);
+    /**
+     * Restored values must be one of entryValues, summary shows the matching entry
+     */
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        for (int i = 0; mEntryValues != null && i < mEntryValues.length; i++) {
+            if (mEntryValues[i].toString().equals(value))
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -112,9 +125,15 @@ abstract class EntrySetPreference extends BottomWidgetPreference {
     }
 
     protected void setValue(CharSequence value) {
-        if (isPersistent() && callChangeListener(value))
-            persistString(value.toString());
+        getPersistence().persistString(value.toString());
+        restoreValue(value);
+        getPersistence().notifyValueChanged(value.toString());
+    }
 
+    /**
+     * Update preference state without persisting the value
+     */
+    private void restoreValue(CharSequence value) {
         mValue = value;
 
         if (mShowValueInSummary)
@@ -159,4 +178,12 @@ abstract class EntrySetPreference extends BottomWidgetPreference {
     public void setEntryValues(CharSequence[] entryValues) {
         mEntryValues = entryValues;
     }
+
+    /**
+     * Set if the selected entry should be shown in summary
+     * @param showValueInSummary Whether to show selected entry
+     */
+    public void setShowValueInSummary(boolean showValueInSummary) {
+        mShowValueInSummary = showValueInSummary;
+    }
 }
@@ -55,11 +55,9 @@ public class ExtraButtonsPreference extends BottomWidgetPreference {
     }
 
     private void init(Context context, AttributeSet attrs) {
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_extrabuttons, 0, 0);
-            mLabels = typedArray.getTextArray(R.styleable.preference_extrabuttons_buttonLabels);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_extrabuttons, 0, 0);
+        mLabels = typedArray.getTextArray(R.styleable.preference_extrabuttons_buttonLabels);
+        typedArray.recycle();
 
         mInflater = LayoutInflater.from(context);
     }
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.app.FragmentTransaction;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the fragments of the last opened headers alive. Header list and header fragments are hidden and shown
+ * instead of being replaced, so that going back to the list or opening a kept header again recreates neither views
+ * nor preferences. Least recently opened fragments are removed beyond the kept count, and all hidden ones are
+ * removed under memory pressure. Back navigation between list and kept fragments does not use the back stack.
+ * Headers do not carry fragment arguments, so fragments are identified by their class name.
+ */
+class HeaderFragmentKeeper {
+
+    private static final String TAG_PREFIX = "pk_keep_alive:";
+    private static final String STATE_NAMES = "pk_keep_alive_names";
+    private static final String STATE_TAGS = "pk_keep_alive_tags";
+    private static final String STATE_SHOWN = "pk_keep_alive_shown";
+
+    private final Activity mActivity;
+    private final int mContainerId;
+    private final String mListTag;
+
+    // Kept fragments class names and tags, least recently opened first
+    private ArrayList<String> mNames = new ArrayList<>();
+    private ArrayList<String> mTags = new ArrayList<>();
+    // Class name of the shown fragment, null when header list is shown
+    private String mShown;
+    private int mMaxCount;
+
+    HeaderFragmentKeeper(Activity activity, int containerId, String listTag, Bundle savedInstanceState) {
+        mActivity = activity;
+        mContainerId = containerId;
+        mListTag = listTag;
+
+        // Hidden fragments are restored by fragment manager
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_NAMES)) {
+            mNames = savedInstanceState.getStringArrayList(STATE_NAMES);
+            mTags = savedInstanceState.getStringArrayList(STATE_TAGS);
+            mShown = savedInstanceState.getString(STATE_SHOWN);
+        }
+    }
+
+    void onSaveInstanceState(Bundle outState) {
+        outState.putStringArrayList(STATE_NAMES, mNames);
+        outState.putStringArrayList(STATE_TAGS, mTags);
+        outState.putString(STATE_SHOWN, mShown);
+    }
+
+    void setMaxCount(int count) {
+        mMaxCount = count;
+        trim(mMaxCount, false);
+    }
+
+    boolean isEnabled() {
+        return mMaxCount > 0;
+    }
+
+    boolean isFragmentShown() {
+        return mShown != null;
+    }
+
+    /**
+     * @return Kept fragment of this class, or null
+     */
+    Fragment find(String fragmentName) {
+        int index = mNames.indexOf(fragmentName);
+        if (index == -1)
+            return null;
+
+        Fragment fragment = mActivity.getFragmentManager().findFragmentByTag(mTags.get(index));
+        if (fragment == null) {
+            mNames.remove(index);
+            mTags.remove(index);
+        }
+        return fragment;
+    }
+
+    /**
+     * Hide the shown fragment or header list and show this fragment, adding or attaching it if needed
+     */
+    void show(String fragmentName, Fragment fragment) {
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        transaction.setCustomAnimations(android.R.animator.fade_in, android.R.animator.fade_out);
+
+        Fragment visible = getVisibleFragment();
+        if (visible != null && visible != fragment)
+            transaction.hide(visible);
+
+        String tag;
+        if (fragment.isDetached()) {
+            // Prefetched
+            transaction.attach(fragment);
+            tag = fragment.getTag();
+        } else if (fragment.isAdded()) {
+            transaction.show(fragment);
+            tag = fragment.getTag();
+        } else {
+            tag = TAG_PREFIX + fragmentName;
+            transaction.add(mContainerId, fragment, tag);
+        }
+        transaction.commit();
+
+        int index = mNames.indexOf(fragmentName);
+        if (index != -1) {
+            mNames.remove(index);
+            mTags.remove(index);
+        }
+        mNames.add(fragmentName);
+        mTags.add(tag);
+        mShown = fragmentName;
+
+        trim(mMaxCount, false);
+    }
+
+    /**
+     * Hide the shown fragment and show header list
+     * @return false if header list is already shown
+     */
+    boolean showHeaderList() {
+        if (mShown == null)
+            return false;
+
+        FragmentTransaction transaction = mActivity.getFragmentManager().beginTransaction();
+        transaction.setCustomAnimations(android.R.animator.fade_in, android.R.animator.fade_out);
+
+        Fragment visible = getVisibleFragment();
+        if (visible != null)
+            transaction.hide(visible);
+        transaction.show(mActivity.getFragmentManager().findFragmentByTag(mListTag));
+        transaction.commit();
+
+        mShown = null;
+        return true;
+    }
+
+    /**
+     * Remove all hidden fragments. Can be called after state is saved, kept fragments are only a cache
+     */
+    void onLowMemory() {
+        trim(mShown != null ? 1 : 0, true);
+    }
+
+    private Fragment getVisibleFragment() {
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        if (mShown == null)
+            return fragmentManager.findFragmentByTag(mListTag);
+        int index = mNames.indexOf(mShown);
+        // Shown fragment may not be tracked, it is then not kept alive
+        return index != -1 ? fragmentManager.findFragmentByTag(mTags.get(index)) : null;
+    }
+
+    /**
+     * Remove least recently opened fragments until count fits, the shown one is never removed
+     */
+    private void trim(int count, boolean allowStateLoss) {
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        FragmentTransaction transaction = null;
+
+        for (int i = 0; i < mNames.size() && mNames.size() > count; ) {
+            if (mNames.get(i).equals(mShown)) {
+                i++;
+                continue;
+            }
+
+            Fragment fragment = fragmentManager.findFragmentByTag(mTags.get(i));
+            if (fragment != null) {
+                if (transaction == null)
+                    transaction = fragmentManager.beginTransaction();
+                transaction.remove(fragment);
+            }
+            mNames.remove(i);
+            mTags.remove(i);
+        }
+
+        if (transaction != null) {
+            if (allowStateLoss)
+                transaction.commitAllowingStateLoss();
+            else
+                transaction.commit();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.app.FragmentTransaction;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.text.TextUtils;
+
+import com.majeur.preferencekit.PreferenceHeadersActivity.Header;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates fragments of the headers most likely to be opened next while main thread is idle. They are added detached
+ * to the fragment manager, so that their preferences are inflated, and attached when their header is clicked.
+ * Likely headers are the one hinted by the application, then the most opened ones, last opened first on ties.
+ * At most a fixed count of detached fragments is kept prefetched, least recently used ones are removed beyond it.
+ * A prefetched fragment attached by back stack is in use, it is neither counted nor removed. A count is used
+ * rather than a heap measurement, which is only an estimate with garbage collection running concurrently.
+ * Opened headers are counted in memory and written to usage preferences once the activity stops.
+ * Headers do not carry fragment arguments, so fragments are identified by their class name.
+ */
+class HeaderFragmentPrefetcher implements MessageQueue.IdleHandler {
+
+    private static final String TAG_PREFIX = "pk_prefetch:";
+    private static final String STATE_NAMES = "pk_prefetch_names";
+
+    private static final String USAGE_PREFERENCES = "pk_header_usage";
+    private static final String USAGE_LAST = "last";
+
+    // Candidates considered at each idle pass
+    private static final int MAX_CANDIDATES = 3;
+    // Each prefetched fragment holds a preference hierarchy, usually small compared with a view hierarchy
+    static final int DEFAULT_LIMIT = 2;
+
+    private final PreferenceHeadersActivity mActivity;
+    private final int mContainerId;
+    private final SharedPreferences mUsage;
+    // Opens not written to usage preferences yet
+    private final Map<String, Integer> mPendingOpenCounts = new HashMap<>();
+    private String mPendingLast;
+
+    // Prefetched fragment class names, least recently used first
+    private final List<String> mPrefetched = new ArrayList<>();
+    // Fragments not to prefetch again, as they are not preference fragments
+    private final Set<String> mSkipped = new HashSet<>();
+    private int mLimit = DEFAULT_LIMIT;
+
+    private boolean mEnabled;
+    private boolean mScheduled;
+    private String mHint;
+
+    HeaderFragmentPrefetcher(PreferenceHeadersActivity activity, int containerId, Bundle savedInstanceState) {
+        mActivity = activity;
+        mContainerId = containerId;
+        mUsage = activity.getSharedPreferences(USAGE_PREFERENCES, Context.MODE_PRIVATE);
+
+        // Detached fragments are restored by fragment manager
+        if (savedInstanceState != null) {
+            ArrayList<String> names = savedInstanceState.getStringArrayList(STATE_NAMES);
+            if (names != null)
+                mPrefetched.addAll(names);
+        }
+    }
+
+    void onSaveInstanceState(Bundle outState) {
+        outState.putStringArrayList(STATE_NAMES, new ArrayList<>(mPrefetched));
+    }
+
+    /**
+     * Prefetched fragments are removed at next idle time when disabled
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        schedule();
+    }
+
+    void setHint(Header header) {
+        mHint = header != null && header.fragmentName != null ? header.fragmentName.toString() : null;
+        schedule();
+    }
+
+    void setLimit(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Prefetch limit must not be negative: " + count);
+        mLimit = count;
+        schedule();
+    }
+
+    /**
+     * Prefetch or trim at next idle time, fragment transactions cannot be committed at any time
+     */
+    void schedule() {
+        if ((mEnabled || !mPrefetched.isEmpty()) && !mScheduled) {
+            mScheduled = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    void onDestroy() {
+        Looper.myQueue().removeIdleHandler(this);
+        mScheduled = false;
+    }
+
+    @Override
+    public boolean queueIdle() {
+        if (!mActivity.canPrefetchFragments()) {
+            mScheduled = false;
+            return false;
+        }
+
+        trim(mEnabled ? mLimit : 0, false);
+        if (!mEnabled) {
+            mScheduled = false;
+            return false;
+        }
+
+        String name = nextCandidate();
+        if (name != null)
+            prefetch(name);
+
+        // One fragment per idle pass, keep the handler while there are candidates left
+        mScheduled = name != null && nextCandidate() != null;
+        return mScheduled;
+    }
+
+    /**
+     * Record an opened header, for next candidates. Written with {@link #onStop()}
+     */
+    void onFragmentOpened(String fragmentName) {
+        Integer count = mPendingOpenCounts.get(fragmentName);
+        mPendingOpenCounts.put(fragmentName, count != null ? count + 1 : 1);
+        mPendingLast = fragmentName;
+    }
+
+    /**
+     * Write headers opened since last call to usage preferences, in a single apply
+     */
+    void onStop() {
+        if (mPendingLast == null)
+            return;
+
+        SharedPreferences.Editor editor = mUsage.edit();
+        for (Map.Entry<String, Integer> entry : mPendingOpenCounts.entrySet())
+            editor.putInt(entry.getKey(), mUsage.getInt(entry.getKey(), 0) + entry.getValue());
+        editor.putString(USAGE_LAST, mPendingLast).apply();
+
+        mPendingOpenCounts.clear();
+        mPendingLast = null;
+    }
+
+    private int getOpenCount(String fragmentName) {
+        Integer pending = mPendingOpenCounts.get(fragmentName);
+        return mUsage.getInt(fragmentName, 0) + (pending != null ? pending : 0);
+    }
+
+    /**
+     * @return Prefetched detached fragment of this class, or null. It stays prefetched, so that it can be reused
+     * once detached again by back navigation
+     */
+    Fragment take(String fragmentName) {
+        if (!mPrefetched.remove(fragmentName))
+            return null;
+
+        Fragment fragment = mActivity.getFragmentManager().findFragmentByTag(TAG_PREFIX + fragmentName);
+        if (fragment == null)
+            return null;
+
+        // Most recently used
+        mPrefetched.add(fragmentName);
+        return fragment.isDetached() ? fragment : null;
+    }
+
+    /**
+     * Stop tracking this prefetched fragment, once attached for good by another owner. It no longer counts in limit
+     */
+    void release(String fragmentName) {
+        mPrefetched.remove(fragmentName);
+    }
+
+    /**
+     * Remove all prefetched fragments. Can be called after state is saved, prefetched fragments are only a cache
+     */
+    void onLowMemory() {
+        trim(0, true);
+    }
+
+    private String nextCandidate() {
+        if (getDetachedCount() >= mLimit)
+            return null;
+
+        List<String> candidates = getCandidates();
+        for (int i = 0; i < candidates.size() && i < MAX_CANDIDATES; i++) {
+            String name = candidates.get(i);
+            if (!mPrefetched.contains(name) && !mSkipped.contains(name))
+                return name;
+        }
+        return null;
+    }
+
+    private List<String> getCandidates() {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < mActivity.getHeaderCount(); i++) {
+            CharSequence fragmentName = mActivity.getHeaderAt(i).fragmentName;
+            if (!TextUtils.isEmpty(fragmentName))
+                names.add(fragmentName.toString());
+        }
+
+        final String last = mPendingLast != null ? mPendingLast : mUsage.getString(USAGE_LAST, null);
+        List<String> candidates = new ArrayList<>();
+        for (String name : names) {
+            if (name.equals(mHint) || getOpenCount(name) > 0)
+                candidates.add(name);
+        }
+
+        Collections.sort(candidates, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                if (lhs.equals(mHint) || rhs.equals(mHint))
+                    return lhs.equals(mHint) ? -1 : 1;
+
+                int lhsCount = getOpenCount(lhs);
+                int rhsCount = getOpenCount(rhs);
+                if (lhsCount != rhsCount)
+                    return lhsCount > rhsCount ? -1 : 1;
+                return lhs.equals(last) ? -1 : (rhs.equals(last) ? 1 : 0);
+            }
+        });
+        return candidates;
+    }
+
+    private void prefetch(String fragmentName) {
+        Fragment fragment = Fragment.instantiate(mActivity, fragmentName);
+        if (!(fragment instanceof PreferenceFragment)) {
+            // Reported when its header is clicked
+            mSkipped.add(fragmentName);
+            return;
+        }
+
+        // Detached fragments are created, preferences included, but get no view
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        fragmentManager.beginTransaction()
+                .add(mContainerId, fragment, TAG_PREFIX + fragmentName)
+                .detach(fragment)
+                .commit();
+        fragmentManager.executePendingTransactions();
+
+        mPrefetched.add(fragmentName);
+    }
+
+    /**
+     * @return Count of prefetched fragments not currently attached
+     */
+    private int getDetachedCount() {
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        int count = 0;
+        for (String name : mPrefetched) {
+            Fragment fragment = fragmentManager.findFragmentByTag(TAG_PREFIX + name);
+            if (fragment == null || fragment.isDetached())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Remove least recently used detached prefetched fragments until at most count remain, attached ones are shown.
+     * Fragments can only be removed once back stack is empty, as back stack entries may attach them again
+     */
+    private void trim(int count, boolean allowStateLoss) {
+        FragmentManager fragmentManager = mActivity.getFragmentManager();
+        int detachedCount = getDetachedCount();
+        if (detachedCount <= count || fragmentManager.getBackStackEntryCount() > 0)
+            return;
+
+        Iterator<String> iterator = mPrefetched.iterator();
+        while (detachedCount > count && iterator.hasNext()) {
+            Fragment fragment = fragmentManager.findFragmentByTag(TAG_PREFIX + iterator.next());
+            if (fragment != null && !fragment.isDetached())
+                continue;
+
+            if (fragment != null) {
+                FragmentTransaction transaction = fragmentManager.beginTransaction().remove(fragment);
+                if (allowStateLoss)
+                    transaction.commitAllowingStateLoss();
+                else
+                    transaction.commit();
+            }
+            iterator.remove();
+            detachedCount--;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
+import android.util.Xml;
+
+import com.majeur.preferencekit.PreferenceHeadersActivity.Header;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads headers from xml, on calling thread or in background. Parsed headers are cached in a file keyed by xml
+ * resource id, application version and configuration, so that later loads read the cache instead of parsing xml.
+ * A cache that cannot be read is deleted and xml is parsed instead. Texts are cached as plain strings, styled text
+ * is not kept.
+ */
+class HeadersLoader {
+
+    private static final String TAG = HeadersLoader.class.getSimpleName();
+
+    private static final int MAGIC = 0x504b4843; // PKHC
+    private static final int VERSION = 3;
+
+    private static final String CACHE_DIR = "pk_headers";
+
+    interface Callback {
+
+        /**
+         * Called on UI thread for background loads
+         * @param headers Loaded headers
+         * @param fromCache true if headers were read from cache, false if xml was parsed
+         * @param loadTimeNanos Time spent loading headers
+         */
+        void onHeadersLoaded(List<Header> headers, boolean fromCache, long loadTimeNanos);
+    }
+
+    private static Handler sHandler;
+
+    private HeadersLoader() {
+    }
+
+    /**
+     * Load headers on calling thread, from cache or by parsing xml, and pass them to callback before returning
+     */
+    static void load(Context context, int xmlResId, Callback callback) {
+        long start = System.nanoTime();
+
+        File cacheFile = getCacheFile(context, CACHE_DIR, xmlResId);
+        List<Header> headers = readCache(cacheFile);
+        boolean fromCache = headers != null;
+        if (!fromCache) {
+            headers = parse(context, xmlResId);
+            writeCache(cacheFile, headers);
+        }
+
+        callback.onHeadersLoaded(headers, fromCache, System.nanoTime() - start);
+    }
+
+    /**
+     * Same as {@link #load(Context, int, Callback)} in background, callback is called on UI thread
+     */
+    static void loadAsync(final Context context, final int xmlResId, final Callback callback) {
+        if (sHandler == null)
+            sHandler = new Handler(Looper.getMainLooper());
+
+        PreferenceKit.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(context, xmlResId, new Callback() {
+                        @Override
+                        public void onHeadersLoaded(final List<Header> headers, final boolean fromCache,
+                                                    final long loadTimeNanos) {
+                            sHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onHeadersLoaded(headers, fromCache, loadTimeNanos);
+                                }
+                            });
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    // Invalid xml must crash like it did when parsed on UI thread
+                    sHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            throw e;
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    static List<Header> parse(Context context, int xmlResId) {
+        Resources resources = context.getResources();
+        List<Header> localList = new ArrayList<>();
+        XmlResourceParser parser = null;
+
+        try {
+            parser = resources.getXml(xmlResId);
+            AttributeSet attrs = Xml.asAttributeSet(parser);
+
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && type != XmlPullParser.START_TAG) {
+                // Parse next until start tag is found
+            }
+
+            String nodeName = parser.getName();
+            if (!"headers".equals(nodeName)) {
+                throw new RuntimeException(
+                        "XML document must start with <headers> tag; found "
+                                + nodeName + " at " + parser.getPositionDescription());
+            }
+
+            final int outerDepth = parser.getDepth();
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
+                if (type == XmlPullParser.END_TAG || type == XmlPullParser.TEXT) {
+                    continue;
+                }
+
+                nodeName = parser.getName();
+                if ("header".equals(nodeName)) {
+                    Header header = new Header();
+
+                    TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.PreferenceHeader);
+
+                    TypedValue typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_title);
+                    if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
+                        if (typedValue.resourceId != 0) {
+                            header.title = resources.getText(typedValue.resourceId);
+                            header.titleRes = typedValue.resourceId;
+                        } else {
+                            header.title = typedValue.string;
+                        }
+                    }
+
+                    typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_summary);
+                    if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
+                        if (typedValue.resourceId != 0) {
+                            header.summary = resources.getText(typedValue.resourceId);
+                            header.summaryRes = typedValue.resourceId;
+                        } else {
+                            header.summary = typedValue.string;
+                        }
+                    }
+
+                    header.id = typedArray.getResourceId(R.styleable.PreferenceHeader_id, Header.INVALID_ID);
+                    header.iconRes = typedArray.getResourceId(R.styleable.PreferenceHeader_icon, 0);
+                    header.fragmentName = typedArray.getString(R.styleable.PreferenceHeader_fragment);
+                    header.tintIcon = typedArray.getBoolean(R.styleable.PreferenceHeader_tintIcon, false);
+                    header.preferencesRes = typedArray.getResourceId(R.styleable.PreferenceHeader_preferences, 0);
+                    typedArray.recycle();
+
+                    final int innerDepth = parser.getDepth();
+                    while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                            && (type != XmlPullParser.END_TAG || parser.getDepth() > innerDepth)) {
+
+                        // Skip inner fragment args
+                    }
+
+                    localList.add(header);
+                } else if ("separator".equals(nodeName)) {
+                    Header header = new Header();
+                    header.isSeparator = true;
+
+                    TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.PreferenceHeader);
+
+                    TypedValue typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_title);
+                    if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
+                        if (typedValue.resourceId != 0) {
+                            header.title = resources.getText(typedValue.resourceId);
+                            header.titleRes = typedValue.resourceId;
+                        } else {
+                            header.title = typedValue.string;
+                        }
+                    }
+
+                    header.id = typedArray.getResourceId(R.styleable.PreferenceHeader_id, Header.INVALID_ID);
+
+                    typedArray.recycle();
+
+                    localList.add(header);
+                } else {
+                    Utils.skipCurrentTag(parser);
+                }
+            }
+
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException("Error parsing headers", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Error parsing headers", e);
+        } finally {
+            if (parser != null)
+                parser.close();
+        }
+
+        return localList;
+    }
+
+    /**
+     * Application update time is part of the key because debug builds keep the same version code
+     */
+    static File getCacheFile(Context context, String directoryName, int xmlResId) {
+        long versionCode = 0;
+        long updateTime = 0;
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            versionCode = info.versionCode;
+            updateTime = info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Own package is always found
+        }
+
+        Configuration configuration = context.getResources().getConfiguration();
+        String name = xmlResId + "_" + versionCode + "_" + updateTime + "_" + configuration.locale
+                + "_" + configuration.densityDpi;
+
+        return new File(new File(context.getCacheDir(), directoryName), name);
+    }
+
+    /**
+     * @return Cached headers, or null if there is no cache or if it cannot be read, xml must then be parsed
+     */
+    private static List<Header> readCache(File file) {
+        if (!file.exists())
+            return null;
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MAGIC || input.readByte() != VERSION)
+                    return null;
+
+                int count = input.readInt();
+                if (count < 0)
+                    throw new IOException("Invalid header count " + count);
+
+                // Not sized from count, a corrupt one must end with EOF instead of a huge allocation
+                List<Header> headers = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    Header header = new Header();
+                    header.isSeparator = input.readBoolean();
+                    header.title = readNullableString(input);
+                    header.summary = readNullableString(input);
+                    header.titleRes = input.readInt();
+                    header.summaryRes = input.readInt();
+                    header.fragmentName = readNullableString(input);
+                    header.id = input.readInt();
+                    header.iconRes = input.readInt();
+                    header.tintIcon = input.readBoolean();
+                    header.preferencesRes = input.readInt();
+                    headers.add(header);
+                }
+                return headers;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring invalid headers cache " + file, e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring invalid headers cache " + file, e);
+        }
+
+        // Rewritten once xml is parsed
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Remove cache files of the same xml for other versions or configurations
+     * @return false if cache directory cannot be created
+     */
+    static boolean deleteStaleCacheFiles(File file) {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            return false;
+
+        String prefix = file.getName().substring(0, file.getName().indexOf('_') + 1);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                if (other.getName().startsWith(prefix))
+                    other.delete();
+            }
+        }
+        return true;
+    }
+
+    private static void writeCache(File file, List<Header> headers) {
+        if (!deleteStaleCacheFiles(file))
+            return;
+
+        File directory = file.getParentFile();
+        File tmpFile = new File(directory, file.getName() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                output.writeInt(MAGIC);
+                output.writeByte(VERSION);
+                output.writeInt(headers.size());
+
+                for (Header header : headers) {
+                    output.writeBoolean(header.isSeparator);
+                    writeNullableString(output, header.title);
+                    writeNullableString(output, header.summary);
+                    output.writeInt(header.titleRes);
+                    output.writeInt(header.summaryRes);
+                    writeNullableString(output, header.fragmentName);
+                    output.writeInt(header.id);
+                    output.writeInt(header.iconRes);
+                    output.writeBoolean(header.tintIcon);
+                    output.writeInt(header.preferencesRes);
+                }
+            } finally {
+                output.close();
+            }
+
+            if (!tmpFile.renameTo(file))
+                tmpFile.delete();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write headers cache " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    static String readNullableString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    static void writeNullableString(DataOutputStream output, CharSequence value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null)
+            output.writeUTF(value.toString());
+    }
+}
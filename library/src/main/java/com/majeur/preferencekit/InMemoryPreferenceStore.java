@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PreferenceStore} that keeps values in memory only. Useful for tests or for values that
+ * do not need to survive process death.
+ */
+public class InMemoryPreferenceStore implements PreferenceStore {
+
+    private final Map<String, Object> mValues = new HashMap<>();
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    /**
+     * Remove all values of this store
+     */
+    public synchronized void clear() {
+        mValues.clear();
+    }
+
+    private class EditorImpl implements Editor {
+
+        // A null value means removal
+        private final Map<String, Object> mChanges = new HashMap<>();
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            synchronized (InMemoryPreferenceStore.this) {
+                for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                    if (change.getValue() == null)
+                        mValues.remove(change.getKey());
+                    else
+                        mValues.put(change.getKey(), change.getValue());
+                }
+            }
+            mChanges.clear();
+        }
+    }
+}
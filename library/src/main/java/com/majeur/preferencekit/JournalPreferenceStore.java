@@ -0,0 +1,474 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link PreferenceStore} that appends every change to a journal file instead of rewriting all values.
+ * Values are kept in memory, the journal is replayed over the last snapshot when the store is opened.
+ * Once the journal grows over the compaction threshold, the journal is rotated and current values are written
+ * to a new snapshot in background, so that applying never waits for disk beyond its own append.
+ * <p>
+ * Record layout: payload length (4 bytes), CRC32 of payload (4 bytes), then payload: type (1 byte),
+ * key and value. Keys and string values are written as their UTF-8 length (4 bytes) then bytes. A record that is incomplete, whose checksum does not match or that
+ * cannot be decoded ends the replay: it can only be the last one, torn by a crash while being written, and it is dropped.
+ * <p>
+ * Changes are written to the journal file when they are applied, but they are only guaranteed to be
+ * on disk after {@link #flush()}.
+ */
+public class JournalPreferenceStore implements PreferenceStore {
+
+    private static final String TAG = JournalPreferenceStore.class.getSimpleName();
+
+    /**
+     * Default journal size over which values are compacted into a new snapshot
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_REMOVED = 4;
+
+    // Type byte and key length of an empty key
+    private static final int MIN_PAYLOAD_LENGTH = 1 + 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mSnapshotFile;
+    private final File mJournalFile;
+    private final File mOldJournalFile;
+    private final int mCompactionThreshold;
+
+    private final Map<String, Object> mValues = new HashMap<>();
+    private FileOutputStream mJournalStream;
+    private long mJournalSize;
+    private boolean mCompacting;
+    private boolean mClosed;
+
+    /**
+     * Open or create a store with {@link #DEFAULT_COMPACTION_THRESHOLD}
+     * @param file Snapshot file, journal files are created next to it
+     * @throws IOException If files cannot be read or journal cannot be opened
+     */
+    public JournalPreferenceStore(@NonNull File file) throws IOException {
+        this(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Open or create a store
+     * @param file Snapshot file, journal files are created next to it
+     * @param compactionThreshold Journal size in bytes over which a compaction is started
+     * @throws IOException If files cannot be read or journal cannot be opened
+     */
+    public JournalPreferenceStore(@NonNull File file, int compactionThreshold) throws IOException {
+        mSnapshotFile = file;
+        mJournalFile = new File(file.getPath() + ".journal");
+        mOldJournalFile = new File(file.getPath() + ".journal.old");
+        mCompactionThreshold = compactionThreshold;
+
+        replay(mSnapshotFile);
+        // Left by a compaction that did not complete, its records are not in snapshot yet
+        replay(mOldJournalFile);
+        mJournalSize = replay(mJournalFile);
+
+        mJournalStream = new FileOutputStream(mJournalFile, true);
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    /**
+     * Force applied changes to be written on disk
+     * @throws IOException If journal cannot be synced
+     */
+    public synchronized void flush() throws IOException {
+        mJournalStream.getFD().sync();
+    }
+
+    /**
+     * Close the journal file, the store cannot be used anymore. A running compaction still completes.
+     * @throws IOException If file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        mClosed = true;
+        mJournalStream.close();
+    }
+
+    /**
+     * @return Current size of the journal in bytes
+     */
+    public synchronized long getJournalSize() {
+        return mJournalSize;
+    }
+
+    /**
+     * Start a compaction in background, unless one is already running. Journal is rotated in background too,
+     * changes applied meanwhile go to the journal in use
+     */
+    public synchronized void compact() {
+        if (mCompacting || mClosed)
+            return;
+        mCompacting = true;
+
+        PreferenceKit.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Map<String, Object> values;
+                    synchronized (JournalPreferenceStore.this) {
+                        values = rotateJournal();
+                    }
+                    if (values != null)
+                        writeSnapshot(values);
+                } catch (IOException e) {
+                    // Old journal is kept and replayed at next open, nothing is lost
+                    Log.e(TAG, "Cannot write snapshot " + mSnapshotFile, e);
+                } finally {
+                    synchronized (JournalPreferenceStore.this) {
+                        mCompacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Move journal records to old journal, the snapshot of values returned covers both
+     * @return Current values, or null if store is closed or journal cannot be rotated
+     */
+    private Map<String, Object> rotateJournal() {
+        if (mClosed)
+            return null;
+
+        try {
+            mJournalStream.close();
+            if (mOldJournalFile.exists()) {
+                // Left by a failed compaction, keep its records until a snapshot succeeds
+                appendFile(mJournalFile, mOldJournalFile);
+                if (!mJournalFile.delete())
+                    throw new IOException("Cannot delete " + mJournalFile);
+            } else if (!mJournalFile.renameTo(mOldJournalFile)) {
+                throw new IOException("Cannot rename " + mJournalFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot rotate journal", e);
+            return null;
+        } finally {
+            reopenJournal();
+        }
+
+        mJournalSize = 0;
+        return new HashMap<>(mValues);
+    }
+
+    private void reopenJournal() {
+        try {
+            mJournalStream = new FileOutputStream(mJournalFile, true);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open journal " + mJournalFile, e);
+        }
+    }
+
+    private static void appendFile(File source, File destination) throws IOException {
+        FileInputStream inputStream = new FileInputStream(source);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(destination, true);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1)
+                    outputStream.write(buffer, 0, count);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeSnapshot(Map<String, Object> values) throws IOException {
+        File tmpFile = new File(mSnapshotFile.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+
+        try {
+            ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+            DataOutputStream recordOutput = new DataOutputStream(recordStream);
+
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                recordStream.reset();
+                writeRecord(recordOutput, entry.getKey(), entry.getValue());
+                recordStream.writeTo(outputStream);
+            }
+
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (!tmpFile.renameTo(mSnapshotFile))
+            throw new IOException("Cannot replace " + mSnapshotFile);
+
+        // Snapshot contains every record of old journal
+        if (!mOldJournalFile.delete())
+            Log.w(TAG, "Cannot delete " + mOldJournalFile);
+    }
+
+    /**
+     * Apply records of given file to values. A torn trailing record is truncated, so that new records
+     * are not appended after it. A record is torn if it is incomplete, too short, fails its checksum or
+     * cannot be decoded, records after it are dropped as well.
+     * @return Valid size of the file
+     */
+    private long replay(File file) throws IOException {
+        if (!file.exists())
+            return 0;
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long validSize = 0;
+        CRC32 crc = new CRC32();
+
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                byte[] payload;
+                long checksum;
+                try {
+                    checksum = input.readInt() & 0xffffffffL;
+                    // Zero-filled tail reads as an empty record with a matching checksum
+                    if (length < MIN_PAYLOAD_LENGTH || length > file.length())
+                        break;
+                    payload = new byte[length];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (crc.getValue() != checksum)
+                    break;
+
+                try {
+                    readPayload(payload);
+                } catch (IOException e) {
+                    // Checksum matched garbage, treated as torn as well
+                    break;
+                }
+                validSize += 8 + length;
+            }
+        } finally {
+            input.close();
+        }
+
+        if (validSize < file.length()) {
+            Log.w(TAG, "Dropping torn record at end of " + file);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validSize);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        return validSize;
+    }
+
+    private void readPayload(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = input.readByte();
+        String key = readString(input);
+
+        switch (type) {
+            case TYPE_INT:
+                mValues.put(key, input.readInt());
+                break;
+            case TYPE_LONG:
+                mValues.put(key, input.readLong());
+                break;
+            case TYPE_STRING:
+                mValues.put(key, readString(input));
+                break;
+            case TYPE_REMOVED:
+                mValues.remove(key);
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Write a complete record, length and checksum included. A null value writes a removal.
+     */
+    private static void writeRecord(DataOutputStream output, String key, Object value) throws IOException {
+        ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+        DataOutputStream payloadOutput = new DataOutputStream(payloadStream);
+
+        if (value == null) {
+            payloadOutput.writeByte(TYPE_REMOVED);
+            writeString(payloadOutput, key);
+        } else if (value instanceof Integer) {
+            payloadOutput.writeByte(TYPE_INT);
+            writeString(payloadOutput, key);
+            payloadOutput.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            payloadOutput.writeByte(TYPE_LONG);
+            writeString(payloadOutput, key);
+            payloadOutput.writeLong((Long) value);
+        } else {
+            payloadOutput.writeByte(TYPE_STRING);
+            writeString(payloadOutput, key);
+            writeString(payloadOutput, (String) value);
+        }
+
+        byte[] payload = payloadStream.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        output.writeInt(payload.length);
+        output.writeInt((int) crc.getValue());
+        output.write(payload);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available())
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private class EditorImpl implements Editor {
+
+        // A null value means removal
+        private final Map<String, Object> mChanges = new HashMap<>();
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            ByteArrayOutputStream recordsStream = new ByteArrayOutputStream();
+            DataOutputStream recordsOutput = new DataOutputStream(recordsStream);
+
+            try {
+                for (Map.Entry<String, Object> change : mChanges.entrySet())
+                    writeRecord(recordsOutput, change.getKey(), change.getValue());
+            } catch (IOException e) {
+                throw new RuntimeException(e); // Not thrown by in-memory streams, strings have no length limit
+            }
+
+            synchronized (JournalPreferenceStore.this) {
+                for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                    if (change.getValue() == null)
+                        mValues.remove(change.getKey());
+                    else
+                        mValues.put(change.getKey(), change.getValue());
+                }
+
+                try {
+                    // Single write call, records of an edit are appended together
+                    recordsStream.writeTo(mJournalStream);
+                    mJournalSize += recordsStream.size();
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot append to journal " + mJournalFile, e);
+                }
+
+                if (mJournalSize > mCompactionThreshold)
+                    compact();
+            }
+            mChanges.clear();
+        }
+    }
+}
@@ -31,4 +31,8 @@ interface Lockable {
     void setLocked(boolean locked);
 
     boolean isLocked();
+
+    void setLockTag(String tag);
+
+    String getLockTag();
 }
@@ -0,0 +1,510 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PreferenceStore} backed by a memory-mapped binary file. Values are stored in fixed-layout records and
+ * an in-memory index maps each key to its record, so reads are a map lookup plus a buffer read, and
+ * int and long writes update their slot in place. Opening the store only maps the file and scans record keys,
+ * no parsing of values is involved.
+ * <p>
+ * Record layout: flags (1 byte), key length (2 bytes), key (UTF-8), type (1 byte), then payload:
+ * 4 bytes for ints, 8 bytes for longs, capacity (4 bytes), length (4 bytes) and capacity bytes for strings.
+ * Replaced and removed records are flagged as deleted, {@link #compact()} rewrites the file without them.
+ * Records flagged as internal hold store state, such as migration state, they are not visible through this store.
+ * Payloads are written before they are published, by data end for new records and by length for strings
+ * rewritten in place, so that a write interrupted by process death is not read back.
+ * <p>
+ * Changes are visible to the OS as soon as they are applied, but they are only guaranteed to be on disk
+ * after {@link #flush()}.
+ */
+public class MappedPreferenceStore implements PreferenceStore {
+
+    private static final String TAG = MappedPreferenceStore.class.getSimpleName();
+
+    // Key of an internal record
+    private static final String MIGRATION_KEY = "migrated_from_shared_preferences";
+
+    private static final int MAGIC = 0x504b4d53; // PKMS
+    private static final int VERSION = 1;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_DATA_END = 8;
+    private static final int HEADER_SIZE = 12;
+
+    private static final int INITIAL_SIZE = 4096;
+    private static final int MIN_STRING_CAPACITY = 16;
+
+    private static final byte FLAG_DELETED = 1;
+    private static final byte FLAG_INTERNAL = 2;
+
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+
+    private final Map<String, Slot> mIndex = new HashMap<>();
+    private final Map<String, Slot> mInternalIndex = new HashMap<>();
+    private int mDataEnd;
+    private int mDeletedBytes;
+
+    /**
+     * Open or create a store
+     * @param file File backing the store, created if it does not exist
+     * @throws IOException If file cannot be mapped or is not a valid store file
+     */
+    public MappedPreferenceStore(@NonNull File file) throws IOException {
+        mFile = file;
+        open();
+
+        if (mDeletedBytes > mDataEnd / 2) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot compact " + mFile, e);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+
+        try {
+            read();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void read() throws IOException {
+        boolean newFile = mChannel.size() < HEADER_SIZE;
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(mChannel.size(), INITIAL_SIZE));
+
+        if (newFile) {
+            mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+            mBuffer.putInt(OFFSET_VERSION, VERSION);
+            setDataEnd(HEADER_SIZE);
+        } else {
+            if (mBuffer.getInt(OFFSET_MAGIC) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != VERSION)
+                throw new IOException(mFile + " is not a valid store file");
+            mDataEnd = mBuffer.getInt(OFFSET_DATA_END);
+            if (mDataEnd < HEADER_SIZE || mDataEnd > mBuffer.capacity())
+                throw new IOException("Corrupted store file " + mFile);
+        }
+
+        mIndex.clear();
+        mInternalIndex.clear();
+        mDeletedBytes = 0;
+
+        int position = HEADER_SIZE;
+        while (position < mDataEnd) {
+            if (position + 3 >= mDataEnd)
+                throw new IOException("Corrupted store file " + mFile);
+            int keyLength = mBuffer.getShort(position + 1) & 0xffff;
+            int typeOffset = position + 3 + keyLength;
+            if (typeOffset >= mDataEnd)
+                throw new IOException("Corrupted store file " + mFile);
+            int recordSize = typeOffset + 1 + getPayloadSize(typeOffset) - position;
+            if (recordSize <= 0 || position + recordSize > mDataEnd)
+                throw new IOException("Corrupted store file " + mFile);
+
+            byte flags = mBuffer.get(position);
+            if ((flags & FLAG_DELETED) != 0) {
+                mDeletedBytes += recordSize;
+            } else {
+                // Record appended before previous one was flagged deleted, latest one wins
+                Map<String, Slot> index = (flags & FLAG_INTERNAL) != 0 ? mInternalIndex : mIndex;
+                Slot previous = index.put(readString(position + 3, keyLength),
+                        new Slot(position, typeOffset, recordSize));
+                if (previous != null)
+                    delete(previous);
+            }
+
+            position += recordSize;
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mIndex.containsKey(key);
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Slot slot = getSlot(key, TYPE_INT);
+        return slot != null ? mBuffer.getInt(slot.typeOffset + 1) : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Slot slot = getSlot(key, TYPE_LONG);
+        return slot != null ? mBuffer.getLong(slot.typeOffset + 1) : defValue;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Slot slot = getSlot(key, TYPE_STRING);
+        return slot != null ? readString(slot.typeOffset + 9, mBuffer.getInt(slot.typeOffset + 5)) : defValue;
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    /**
+     * Copy int, long and string values of given SharedPreferences into this store. Migration is only done once,
+     * later calls return immediately. It is recorded once migrated values are on disk, a migration interrupted
+     * by process death is done again. Other value types are ignored.
+     * @param sharedPreferences SharedPreferences to migrate
+     * @return Number of migrated values
+     */
+    public int migrateFrom(@NonNull SharedPreferences sharedPreferences) {
+        synchronized (this) {
+            if (mInternalIndex.containsKey(MIGRATION_KEY))
+                return 0;
+        }
+
+        Editor editor = edit();
+        int count = 0;
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            Object value = entry.getValue();
+
+            if (value instanceof Integer)
+                editor.putInt(entry.getKey(), (Integer) value);
+            else if (value instanceof Long)
+                editor.putLong(entry.getKey(), (Long) value);
+            else if (value instanceof String)
+                editor.putString(entry.getKey(), (String) value);
+            else
+                continue;
+
+            count++;
+        }
+
+        editor.apply();
+
+        synchronized (this) {
+            flush();
+            Slot slot = appendRecord(MIGRATION_KEY, FLAG_INTERNAL, TYPE_INT, 4);
+            mBuffer.putInt(slot.typeOffset + 1, count);
+            publishRecord(MIGRATION_KEY, slot);
+            flush();
+        }
+        return count;
+    }
+
+    /**
+     * Rewrite the store file without deleted records. Called automatically when opening a store
+     * whose deleted records take more than half of the file. Store stays usable if compaction fails.
+     * @throws IOException If new file cannot be written or cannot replace store file
+     */
+    public synchronized void compact() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile tmpRandomAccessFile = new RandomAccessFile(tmpFile, "rw");
+
+        boolean written = false;
+        try {
+            FileChannel tmpChannel = tmpRandomAccessFile.getChannel();
+            int size = Math.max(INITIAL_SIZE, mDataEnd - mDeletedBytes);
+            MappedByteBuffer tmpBuffer = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            tmpBuffer.putInt(OFFSET_MAGIC, MAGIC);
+            tmpBuffer.putInt(OFFSET_VERSION, VERSION);
+
+            int position = HEADER_SIZE;
+            for (Slot slot : mIndex.values())
+                position = copyRecord(slot, tmpBuffer, position);
+            for (Slot slot : mInternalIndex.values())
+                position = copyRecord(slot, tmpBuffer, position);
+
+            tmpBuffer.putInt(OFFSET_DATA_END, position);
+            tmpBuffer.force();
+            written = true;
+        } finally {
+            tmpRandomAccessFile.close();
+            if (!written)
+                tmpFile.delete();
+        }
+
+        close();
+        boolean renamed = tmpFile.renameTo(mFile);
+        // Reopen either compacted file or untouched store file
+        open();
+        if (!renamed) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace " + mFile);
+        }
+    }
+
+    /**
+     * @return Position after the copied record
+     */
+    private int copyRecord(Slot slot, MappedByteBuffer buffer, int position) {
+        for (int i = 0; i < slot.size; i++)
+            buffer.put(position + i, mBuffer.get(slot.recordOffset + i));
+        return position + slot.size;
+    }
+
+    /**
+     * Force applied changes to be written on disk
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * Close the store file, the store cannot be used anymore
+     * @throws IOException If file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        mChannel.close();
+        mRandomAccessFile.close();
+    }
+
+    private Slot getSlot(String key, byte type) {
+        Slot slot = mIndex.get(key);
+        if (slot == null)
+            return null;
+
+        if (mBuffer.get(slot.typeOffset) != type)
+            throw new ClassCastException("Value stored under " + key + " is not of requested type");
+
+        return slot;
+    }
+
+    private int getPayloadSize(int typeOffset) throws IOException {
+        switch (mBuffer.get(typeOffset)) {
+            case TYPE_INT:
+                return 4;
+            case TYPE_LONG:
+                return 8;
+            case TYPE_STRING:
+                if (typeOffset + 9 > mDataEnd)
+                    throw new IOException("Corrupted store file " + mFile);
+                int capacity = mBuffer.getInt(typeOffset + 1);
+                if (capacity < 0 || mBuffer.getInt(typeOffset + 5) > capacity)
+                    throw new IOException("Corrupted store file " + mFile);
+                return 8 + capacity;
+            default:
+                throw new IOException("Corrupted store file " + mFile);
+        }
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void putInt(String key, int value) {
+        Slot slot = mIndex.get(key);
+        if (slot != null && mBuffer.get(slot.typeOffset) == TYPE_INT) {
+            mBuffer.putInt(slot.typeOffset + 1, value);
+        } else {
+            slot = appendRecord(key, (byte) 0, TYPE_INT, 4);
+            mBuffer.putInt(slot.typeOffset + 1, value);
+            publishRecord(key, slot);
+        }
+    }
+
+    private void putLong(String key, long value) {
+        Slot slot = mIndex.get(key);
+        if (slot != null && mBuffer.get(slot.typeOffset) == TYPE_LONG) {
+            mBuffer.putLong(slot.typeOffset + 1, value);
+        } else {
+            slot = appendRecord(key, (byte) 0, TYPE_LONG, 8);
+            mBuffer.putLong(slot.typeOffset + 1, value);
+            publishRecord(key, slot);
+        }
+    }
+
+    private void putString(String key, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+
+        Slot slot = mIndex.get(key);
+        if (slot != null && mBuffer.get(slot.typeOffset) == TYPE_STRING
+                && mBuffer.getInt(slot.typeOffset + 1) >= bytes.length) {
+            // Length is written last, an interrupted rewrite keeps previous length
+            writeBytes(slot.typeOffset + 9, bytes);
+            mBuffer.putInt(slot.typeOffset + 5, bytes.length);
+        } else {
+            int capacity = Math.max(MIN_STRING_CAPACITY, bytes.length + bytes.length / 2);
+            slot = appendRecord(key, (byte) 0, TYPE_STRING, 8 + capacity);
+            mBuffer.putInt(slot.typeOffset + 1, capacity);
+            mBuffer.putInt(slot.typeOffset + 5, bytes.length);
+            writeBytes(slot.typeOffset + 9, bytes);
+            publishRecord(key, slot);
+        }
+    }
+
+    private void writeBytes(int offset, byte[] bytes) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.put(bytes);
+    }
+
+    private void remove(String key) {
+        Slot slot = mIndex.remove(key);
+        if (slot != null)
+            delete(slot);
+    }
+
+    private void delete(Slot slot) {
+        mBuffer.put(slot.recordOffset, FLAG_DELETED);
+        mDeletedBytes += slot.size;
+    }
+
+    /**
+     * Write a new record header after data end, payload has to be written before the record is published
+     * with {@link #publishRecord(String, Slot)}.
+     */
+    private Slot appendRecord(String key, byte flags, byte type, int payloadSize) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > 0xffff)
+            throw new IllegalArgumentException("Key is too long: " + key);
+
+        int recordOffset = mDataEnd;
+        int typeOffset = recordOffset + 3 + keyBytes.length;
+        ensureCapacity(typeOffset + 1 + payloadSize);
+
+        mBuffer.put(recordOffset, flags);
+        mBuffer.putShort(recordOffset + 1, (short) keyBytes.length);
+        for (int i = 0; i < keyBytes.length; i++)
+            mBuffer.put(recordOffset + 3 + i, keyBytes[i]);
+        mBuffer.put(typeOffset, type);
+
+        return new Slot(recordOffset, typeOffset, typeOffset + 1 + payloadSize - recordOffset);
+    }
+
+    /**
+     * Move data end after a complete record, then delete the previous record of its key, if any.
+     * Until data end is written, the record is not read when opening the store.
+     */
+    private void publishRecord(String key, Slot slot) {
+        setDataEnd(slot.recordOffset + slot.size);
+
+        Map<String, Slot> index = (mBuffer.get(slot.recordOffset) & FLAG_INTERNAL) != 0 ? mInternalIndex : mIndex;
+        Slot previous = index.put(key, slot);
+        if (previous != null)
+            delete(previous);
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= mBuffer.capacity())
+            return;
+
+        try {
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, mBuffer.capacity() * 2));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot grow store file " + mFile, e);
+        }
+    }
+
+    private void setDataEnd(int dataEnd) {
+        mDataEnd = dataEnd;
+        mBuffer.putInt(OFFSET_DATA_END, dataEnd);
+    }
+
+    private static final class Slot {
+        final int recordOffset;
+        final int typeOffset;
+        // Whole record size, string capacity never changes
+        final int size;
+
+        Slot(int recordOffset, int typeOffset, int size) {
+            this.recordOffset = recordOffset;
+            this.typeOffset = typeOffset;
+            this.size = size;
+        }
+    }
+
+    private class EditorImpl implements Editor {
+
+        // A null value means removal
+        private final Map<String, Object> mChanges = new HashMap<>();
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            synchronized (MappedPreferenceStore.this) {
+                for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                    Object value = change.getValue();
+
+                    if (value == null)
+                        MappedPreferenceStore.this.remove(change.getKey());
+                    else if (value instanceof Integer)
+                        MappedPreferenceStore.this.putInt(change.getKey(), (Integer) value);
+                    else if (value instanceof Long)
+                        MappedPreferenceStore.this.putLong(change.getKey(), (Long) value);
+                    else
+                        MappedPreferenceStore.this.putString(change.getKey(), (String) value);
+                }
+            }
+            mChanges.clear();
+        }
+    }
+}
@@ -38,14 +38,12 @@ public class NumberPickerPreference extends CirclePickerPreference {
     public NumberPickerPreference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_numberpicker, defStyleAttr, 0);
-            mWrapSelectorWheel = typedArray.getBoolean(R.styleable.preference_numberpicker_wrapSelectorWheel, false);
-            mEditableValue = typedArray.getBoolean(R.styleable.preference_numberpicker_editableValue, false);
-            mDividersColor = typedArray.getColor(R.styleable.preference_numberpicker_selectionIndicatorsColor,
-                    Utils.getAttrColor(context, R.attr.colorAccent));
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_numberpicker, defStyleAttr, 0);
+        mWrapSelectorWheel = typedArray.getBoolean(R.styleable.preference_numberpicker_wrapSelectorWheel, false);
+        mEditableValue = typedArray.getBoolean(R.styleable.preference_numberpicker_editableValue, false);
+        mDividersColor = typedArray.getColor(R.styleable.preference_numberpicker_selectionIndicatorsColor,
+                ResolvedStyle.get(context).accentColor);
+        typedArray.recycle();
     }
 
     public NumberPickerPreference(Context context, AttributeSet attrs) {
@@ -103,4 +101,12 @@ public class NumberPickerPreference extends CirclePickerPreference {
     public void setEditableValue(boolean editableValue) {
         mEditableValue = editableValue;
     }
+
+    /**
+     * Set the color of the selection indicators of the {@link NumberPicker}
+     * @param color Indicators color
+     */
+    public void setSelectionIndicatorsColor(int color) {
+        mDividersColor = color;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.SharedPreferences;
+import android.preference.Preference;
+
+/**
+ * Class used to keep persistence logic in one place for all value-bearing preferences, whatever framework class
+ * they extend. All values are read and written through the {@link PreferenceStore} returned by {@link #getStore()}.
+ * Values are compared to the persisted ones so that nothing is written, and change listener
+ * is not called, when a value did not change.
+ * Restore paths (value read from storage) must not go through write methods, they only have to update the preference state.
+ * Inside a {@link PreferenceKit#batch(Runnable)}, change listener is called when a value is set, before anything is
+ * written, accepted values are written to the batch and observers are notified once it has been applied. If the batch
+ * is abandoned, preferences that wrote to it reload their value from store.
+ */
+class PersistenceDelegate {
+
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_STRING = 3;
+
+    private Preference mPreference;
+    private byte mValueType = TYPE_NONE;
+    private SharedPreferencesStore mSharedPreferencesStore;
+    private ValueObserverRegistry mObservers;
+    // Framework called onSetInitialValue
+    private boolean mInitialValueSet;
+
+    PersistenceDelegate(Preference preference) {
+        if (!(preference instanceof Persistable))
+            throw new IllegalArgumentException("Preference " + preference.getClass().getSimpleName()
+                    + " doesn't implements Persistable interface");
+        mPreference = preference;
+    }
+
+    /**
+     * @return Persistence delegate of given preference, or null if it is not a PreferenceKit value-bearing preference
+     */
+    static PersistenceDelegate of(Preference preference) {
+        if (preference instanceof com.majeur.preferencekit.Preference)
+            return ((com.majeur.preferencekit.Preference) preference).getPersistence();
+        if (preference instanceof DialogPreference)
+            return ((DialogPreference) preference).getPersistence();
+        if (preference instanceof RadioPreferenceGroup)
+            return ((RadioPreferenceGroup) preference).getPersistence();
+        return null;
+    }
+
+    String getKey() {
+        return mPreference.getKey();
+    }
+
+    /**
+     * @return Type of the value this preference persists, {@link #TYPE_NONE} until it read or wrote a value
+     */
+    byte getValueType() {
+        return mValueType;
+    }
+
+    /**
+     * @return true if this preference value is persisted in store
+     */
+    boolean isStored() {
+        return mValueType != TYPE_NONE && shouldPersist() && getStore().contains(mPreference.getKey());
+    }
+
+    /**
+     * Update preference state from the value currently in store, like a restore at inflation
+     */
+    void reloadValue() {
+        ((Persistable) mPreference).reloadValueInternal();
+    }
+
+    /**
+     * @param value Value of this preference type
+     * @return false if preference cannot restore this value, it must then not be written
+     */
+    boolean isValidValue(Object value) {
+        return ((Persistable) mPreference).isValidValueInternal(value);
+    }
+
+    /**
+     * @return The store set through {@link PreferenceKit#setPreferenceStore(PreferenceStore)}, or
+     * a store backed by preference's SharedPreferences
+     */
+    PreferenceStore getStore() {
+        PreferenceStore store = PreferenceKit.getPreferenceStore();
+        if (store != null)
+            return store;
+
+        SharedPreferences sharedPreferences = mPreference.getSharedPreferences();
+        if (mSharedPreferencesStore == null || mSharedPreferencesStore.getSharedPreferences() != sharedPreferences)
+            mSharedPreferencesStore = new SharedPreferencesStore(sharedPreferences);
+        return mSharedPreferencesStore;
+    }
+
+    /**
+     * Framework decides to restore a value by looking at SharedPreferences, this checks the actual store instead.
+     * @param defaultValue Default value given to onSetInitialValue
+     * @return true if the value has to be read from store, false if default value has to be applied and written
+     */
+    boolean shouldRestore(Object defaultValue) {
+        mInitialValueSet = true;
+        return defaultValue == null || (shouldPersist() && getStore().contains(mPreference.getKey()));
+    }
+
+    /**
+     * Called once preference is attached to its hierarchy. Framework skips onSetInitialValue when SharedPreferences do
+     * not contain the key and no default value is declared, a value held by a custom store is then restored here.
+     */
+    void onAttachedToHierarchy() {
+        if (!mInitialValueSet && shouldPersist() && getStore().contains(mPreference.getKey()))
+            reloadValue();
+    }
+
+    int getInt(int defaultValue) {
+        mValueType = TYPE_INT;
+        return shouldPersist() ? getStore().getInt(mPreference.getKey(), defaultValue) : defaultValue;
+    }
+
+    long getLong(long defaultValue) {
+        mValueType = TYPE_LONG;
+        return shouldPersist() ? getStore().getLong(mPreference.getKey(), defaultValue) : defaultValue;
+    }
+
+    String getString(String defaultValue) {
+        mValueType = TYPE_STRING;
+        return shouldPersist() ? getStore().getString(mPreference.getKey(), defaultValue) : defaultValue;
+    }
+
+    /**
+     * User change path. Calls change listener and persists the value, unless it is already persisted.
+     * @return false if change listener refused the value, true else
+     */
+    boolean persistInt(int value) {
+        mValueType = TYPE_INT;
+        if (!shouldPersist())
+            return ((Persistable) mPreference).callChangeListenerInternal(value);
+
+        if (isPersisted(value))
+            return true;
+
+        if (!((Persistable) mPreference).callChangeListenerInternal(value))
+            return false;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putInt(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putInt(mPreference.getKey(), value).apply();
+        return true;
+    }
+
+    /**
+     * User change path. Calls change listener and persists the value, unless it is already persisted.
+     * @return false if change listener refused the value, true else
+     */
+    boolean persistLong(long value) {
+        mValueType = TYPE_LONG;
+        if (!shouldPersist())
+            return ((Persistable) mPreference).callChangeListenerInternal(value);
+
+        if (isPersisted(value))
+            return true;
+
+        if (!((Persistable) mPreference).callChangeListenerInternal(value))
+            return false;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putLong(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putLong(mPreference.getKey(), value).apply();
+        return true;
+    }
+
+    /**
+     * User change path. Calls change listener and persists the value, unless it is already persisted.
+     * @return false if change listener refused the value, true else
+     */
+    boolean persistString(String value) {
+        mValueType = TYPE_STRING;
+        if (!shouldPersist())
+            return ((Persistable) mPreference).callChangeListenerInternal(value);
+
+        if (isPersisted(value))
+            return true;
+
+        if (!((Persistable) mPreference).callChangeListenerInternal(value))
+            return false;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putString(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putString(mPreference.getKey(), value).apply();
+        return true;
+    }
+
+    /**
+     * Persists the value without calling change listener, unless it is already persisted.
+     * Used for default values and for values already submitted to change listener.
+     */
+    void writeInt(int value) {
+        mValueType = TYPE_INT;
+        if (!shouldPersist() || isPersisted(value))
+            return;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putInt(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putInt(mPreference.getKey(), value).apply();
+    }
+
+    /**
+     * Persists the value without calling change listener, unless it is already persisted.
+     * Used for default values and for values already submitted to change listener.
+     */
+    void writeLong(long value) {
+        mValueType = TYPE_LONG;
+        if (!shouldPersist() || isPersisted(value))
+            return;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putLong(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putLong(mPreference.getKey(), value).apply();
+    }
+
+    /**
+     * Persists the value without calling change listener, unless it is already persisted.
+     * Used for default values and for values already submitted to change listener.
+     */
+    void writeString(String value) {
+        mValueType = TYPE_STRING;
+        if (!shouldPersist() || isPersisted(value))
+            return;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null) {
+            batch.putString(getStore(), mPreference.getKey(), value);
+            batch.addTouched(this);
+        } else
+            getStore().edit().putString(mPreference.getKey(), value).apply();
+    }
+
+    void addValueObserver(ValueObserver observer, ValueObserver.Options options) {
+        if (mObservers == null)
+            mObservers = new ValueObserverRegistry(mPreference);
+        mObservers.add(observer, options);
+    }
+
+    void removeValueObserver(ValueObserver observer) {
+        if (mObservers != null)
+            mObservers.remove(observer);
+    }
+
+    /**
+     * Offer a new value to observers. Called by preferences each time their value changes, including
+     * intermediate values that are not persisted yet. Restore paths must not call this.
+     */
+    void notifyValueChanged(Object value) {
+        if (mObservers == null)
+            return;
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null)
+            batch.addNotification(this, value);
+        else
+            mObservers.dispatch(value);
+    }
+
+    /**
+     * Offer a value to observers, once the batch it was set in has been applied
+     */
+    void dispatchValueChanged(Object value) {
+        if (mObservers != null)
+            mObservers.dispatch(value);
+    }
+
+    boolean shouldPersist() {
+        return mPreference.getPreferenceManager() != null && mPreference.isPersistent() && mPreference.hasKey();
+    }
+
+    private boolean isPersisted(int value) {
+        PreferenceStore store = getStore();
+        String key = mPreference.getKey();
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null && batch.hasPendingValue(store, key))
+            return Integer.valueOf(value).equals(batch.getPendingValue(store, key));
+
+        try {
+            return store.contains(key) && store.getInt(key, value) == value;
+        } catch (ClassCastException e) {
+            return false; // Another type is persisted under this key, it has to be overwritten
+        }
+    }
+
+    private boolean isPersisted(long value) {
+        PreferenceStore store = getStore();
+        String key = mPreference.getKey();
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null && batch.hasPendingValue(store, key))
+            return Long.valueOf(value).equals(batch.getPendingValue(store, key));
+
+        try {
+            return store.contains(key) && store.getLong(key, value) == value;
+        } catch (ClassCastException e) {
+            return false; // Another type is persisted under this key, it has to be overwritten
+        }
+    }
+
+    private boolean isPersisted(String value) {
+        PreferenceStore store = getStore();
+        String key = mPreference.getKey();
+
+        PreferenceKit.Batch batch = PreferenceKit.getCurrentBatch();
+        if (batch != null && batch.hasPendingValue(store, key))
+            return value != null && value.equals(batch.getPendingValue(store, key));
+
+        try {
+            return store.contains(key) && value != null && value.equals(store.getString(key, null));
+        } catch (ClassCastException e) {
+            return false; // Another type is persisted under this key, it has to be overwritten
+        }
+    }
+
+    interface Persistable {
+
+        boolean callChangeListenerInternal(Object newValue);
+
+        boolean isValidValueInternal(Object value);
+
+        void reloadValueInternal();
+    }
+}
@@ -18,6 +18,9 @@ package com.majeur.preferencekit;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
@@ -25,14 +28,17 @@ import android.view.ViewGroup;
 /**
  * Lockable framework default Preferences
  */
-public class Preference extends android.preference.Preference implements CommonPreferenceDelegate.Delegatable, Lockable {
+public class Preference extends android.preference.Preference implements CommonPreferenceDelegate.Delegatable,
+        PersistenceDelegate.Persistable, Lockable {
 
     private CommonPreferenceDelegate mDelegate;
+    private PersistenceDelegate mPersistence;
 
     public Preference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         mDelegate = new CommonPreferenceDelegate(this);
         mDelegate.init(context, attrs);
+        mPersistence = new PersistenceDelegate(this);
     }
 
     public Preference(Context context, AttributeSet attrs) {
@@ -73,6 +79,20 @@ public class Preference extends android.preference.Preference implements CommonP
         return mDelegate.isLocked();
     }
 
+    /**
+     * Set the tag selecting this preference in {@link PreferenceKit#setLockedByTag(android.preference.PreferenceGroup, boolean, String)}
+     * @param tag Lock tag, or null
+     */
+    @Override
+    public void setLockTag(String tag) {
+        mDelegate.setLockTag(tag);
+    }
+
+    @Override
+    public String getLockTag() {
+        return mDelegate.getLockTag();
+    }
+
     @Override
     public void superSetEnabled(boolean enabled) {
         super.setEnabled(enabled);
@@ -87,4 +107,66 @@ public class Preference extends android.preference.Preference implements CommonP
     public void notifyChangedInternal() {
         notifyChanged();
     }
+
+    @Override
+    public void notifyListChangedInternal() {
+        if (!PreferenceKit.isRefreshSuppressed())
+            super.notifyChanged();
+    }
+
+    @Override
+    public boolean callChangeListenerInternal(Object newValue) {
+        return callChangeListener(newValue);
+    }
+
+    /**
+     * @return false if this preference cannot restore given persisted value, an imported value is then skipped
+     */
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        return true;
+    }
+
+    /**
+     * Framework only sets initial value when SharedPreferences contain the key or a default value is declared,
+     * a value held by a custom store is restored here otherwise
+     */
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        super.onAttachedToHierarchy(preferenceManager);
+        mPersistence.onAttachedToHierarchy();
+    }
+
+    @Override
+    public void reloadValueInternal() {
+        onSetInitialValue(true, null);
+    }
+
+    /**
+     * Not forwarded while refresh is suppressed by a bulk operation, which refreshes the whole list once done.
+     * Otherwise only the row of this preference is bound again
+     */
+    @Override
+    protected void notifyChanged() {
+        if (!PreferenceKit.isRefreshSuppressed() && !mDelegate.rebindInPlace())
+            super.notifyChanged();
+    }
+
+    /**
+     * Observe value changes of this preference, values are delivered on next frame, latest value wins.
+     * Preferences that do not hold a value never notify their observers.
+     * @param observer Observer to add, replaces previous registration of the same observer
+     * @param options Delivery options, or null for default ones
+     */
+    public void addValueObserver(@NonNull ValueObserver observer, @Nullable ValueObserver.Options options) {
+        mPersistence.addValueObserver(observer, options != null ? options : new ValueObserver.Options());
+    }
+
+    public void removeValueObserver(@NonNull ValueObserver observer) {
+        mPersistence.removeValueObserver(observer);
+    }
+
+    PersistenceDelegate getPersistence() {
+        return mPersistence;
+    }
 }
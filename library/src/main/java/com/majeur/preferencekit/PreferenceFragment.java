@@ -17,20 +17,42 @@
 package com.majeur.preferencekit;
 
 import android.app.Activity;
+import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.preference.Preference;
+import android.preference.PreferenceScreen;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListAdapter;
 import android.widget.ListView;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
- * Preference fragment that must be used when using {@link PreferenceHeadersActivity}
+ * Preference fragment that must be used when using {@link PreferenceHeadersActivity}.
+ * Preference store is loaded in background as soon as fragment is attached, so that initial values are read from
+ * memory when preferences are inflated.
  */
 public abstract class PreferenceFragment extends android.preference.PreferenceFragment {
 
+    // Key of the preference to show once preferences are bound, set when opened from a search result
+    static final String ARG_SCROLL_TO_KEY = "com.majeur.preferencekit.SCROLL_TO_KEY";
+
     private int mActivityDecorColor = -1;
 
+    private Future<?> mStorePrefetch;
+    // Name of the prefetched SharedPreferences, null when the custom store is prefetched
+    private String mPrefetchedPreferencesName;
+    private long mStoreWaitTimeNanos = -1;
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -38,6 +60,134 @@ public abstract class PreferenceFragment extends android.preference.PreferenceFr
         if (activity instanceof PreferenceHeadersActivity) {
             mActivityDecorColor = ((PreferenceHeadersActivity) activity).getDecorColor();
         }
+
+        prefetchStore(activity.getApplicationContext());
+    }
+
+    /**
+     * Preference manager is not created yet, SharedPreferences are prefetched with the name it uses by default.
+     * A subclass setting another name gets its SharedPreferences loaded lazily
+     */
+    private void prefetchStore(final Context context) {
+        final PreferenceStore store = PreferenceKit.getPreferenceStore();
+        mPrefetchedPreferencesName = store == null ? context.getPackageName() + "_preferences" : null;
+
+        // Own thread, so that it is not queued behind indexing or headers loading
+        mStorePrefetch = PreferenceKit.getPrefetchExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                // Opening SharedPreferences may access disk too, any read then blocks until content is loaded
+                if (store != null)
+                    store.contains("");
+                else
+                    context.getSharedPreferences(mPrefetchedPreferencesName, Context.MODE_PRIVATE).contains("");
+            }
+        });
+    }
+
+    @Override
+    public void addPreferencesFromResource(int preferencesResId) {
+        onStorePrefetchUsed();
+        super.addPreferencesFromResource(preferencesResId);
+    }
+
+    /**
+     * Adds preferences created by the given builder to the current preference screen,
+     * the generated counterpart of {@link #addPreferencesFromResource(int)}.
+     * @param builder Builder generated from a preference xml file
+     */
+    public void addPreferencesFromBuilder(PreferenceScreenBuilder builder) {
+        onStorePrefetchUsed();
+
+        PreferenceScreen screen = getPreferenceScreen();
+        if (screen == null)
+            screen = getPreferenceManager().createPreferenceScreen(getActivity());
+
+        builder.build(screen, getActivity());
+        setPreferenceScreen(screen);
+    }
+
+    /**
+     * Wait for the store to be loaded, if still loading, so that initial values are read from memory. Preferences
+     * would otherwise block on their first read just as long
+     */
+    private void onStorePrefetchUsed() {
+        if (mStorePrefetch == null)
+            return;
+
+        Future<?> prefetch = mStorePrefetch;
+        mStorePrefetch = null;
+        if (mPrefetchedPreferencesName != null
+                && !mPrefetchedPreferencesName.equals(getPreferenceManager().getSharedPreferencesName())) {
+            // Another store is read, nothing to wait for
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Store will throw again when read by preferences
+        }
+        mStoreWaitTimeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return Time UI thread waited for the preference store to be loaded before preferences were first added,
+     * in nanoseconds. Close to 0 if store was already loaded, -1 if no preferences have been added yet or if
+     * they read another store than the prefetched one
+     */
+    public long getStoreWaitTimeNanos() {
+        return mStoreWaitTimeNanos;
+    }
+
+    /**
+     * Export values of this fragment preferences, see {@link PreferenceKit#exportValues(android.preference.PreferenceGroup, OutputStream)}
+     */
+    public int exportValues(OutputStream outputStream) throws IOException {
+        return PreferenceKit.exportValues(getPreferenceScreen(), outputStream);
+    }
+
+    /**
+     * Import values to this fragment preferences and refresh the list once,
+     * see {@link PreferenceKit#importValues(android.preference.PreferenceGroup, InputStream)}
+     */
+    public int importValues(InputStream inputStream) throws IOException {
+        return PreferenceKit.importValues(getPreferenceScreen(), inputStream);
+    }
+
+    /**
+     * Lock or unlock all lockable preferences of this fragment and refresh the list once,
+     * see {@link PreferenceKit#setLocked(android.preference.PreferenceGroup, boolean)}
+     */
+    public int setPreferencesLocked(boolean locked) {
+        return PreferenceKit.setLocked(getPreferenceScreen(), locked);
+    }
+
+    /**
+     * Lock or unlock preferences of this fragment having one of these keys,
+     * see {@link PreferenceKit#setLocked(android.preference.PreferenceGroup, boolean, Collection)}
+     */
+    public int setPreferencesLocked(boolean locked, Collection<String> keys) {
+        return PreferenceKit.setLocked(getPreferenceScreen(), locked, keys);
+    }
+
+    /**
+     * Lock or unlock preferences of this fragment selected by matcher,
+     * see {@link PreferenceKit#setLocked(android.preference.PreferenceGroup, boolean, PreferenceKit.PreferenceMatcher)}
+     */
+    public int setPreferencesLocked(boolean locked, PreferenceKit.PreferenceMatcher matcher) {
+        return PreferenceKit.setLocked(getPreferenceScreen(), locked, matcher);
+    }
+
+    /**
+     * Lock or unlock preferences of this fragment having this lock tag,
+     * see {@link PreferenceKit#setLockedByTag(android.preference.PreferenceGroup, boolean, String)}
+     */
+    public int setPreferencesLockedByTag(boolean locked, String lockTag) {
+        return PreferenceKit.setLockedByTag(getPreferenceScreen(), locked, lockTag);
     }
 
     @Override
@@ -49,6 +199,43 @@ public abstract class PreferenceFragment extends android.preference.PreferenceFr
             listView.setPadding(0, 0, 0, 0);
     }
 
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+
+        final String key = getArguments() != null ? getArguments().getString(ARG_SCROLL_TO_KEY) : null;
+        if (key != null && savedInstanceState == null) {
+            // Preferences are bound by a message super just posted, scroll once they are
+            new Handler().post(new Runnable() {
+                @Override
+                public void run() {
+                    scrollToPreference(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * Scroll the list so that the preference with this key is shown at its top
+     * @param key Preference key
+     * @return false if preference is not in the list or if list is not created
+     */
+    public boolean scrollToPreference(String key) {
+        Preference preference = findPreference(key);
+        ListView listView = getView() != null ? (ListView) getView().findViewById(android.R.id.list) : null;
+        if (preference == null || listView == null)
+            return false;
+
+        ListAdapter adapter = getPreferenceScreen().getRootAdapter();
+        for (int i = 0; i < adapter.getCount(); i++) {
+            if (adapter.getItem(i) == preference) {
+                listView.setSelection(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -18,34 +18,31 @@ package com.majeur.preferencekit;
 
 import android.app.Fragment;
 import android.app.FragmentTransaction;
-import android.content.res.Resources;
-import android.content.res.TypedArray;
-import android.content.res.XmlResourceParser;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.os.Bundle;
 import android.preference.PreferenceFragment;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
-import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 import android.util.TypedValue;
-import android.util.Xml;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Activity that provides a full featured material design settings screen. With a difference layout depending on screen size
@@ -103,6 +100,24 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
             return new Header(title, summary, iconRes, tintIcon, fragmentName, false, headerId, backgroundColor);
         }
 
+        /**
+         * Create a new regular header whose texts are resolved from resources when shown, so they follow locale changes
+         * @param titleRes Header title string resource id
+         * @param summaryRes Header summary string resource id, or 0 for no summary
+         * @param iconRes Header icon resource id
+         * @param tintIcon Whether to tint icon
+         * @param fragmentName Fragment to start when header is clicked
+         * @param headerId Header id to identify or to retrieve this header later
+         * @return New regular header
+         */
+        public static Header createHeaderRow(int titleRes, int summaryRes, int iconRes, boolean tintIcon,
+                                             CharSequence fragmentName, int headerId) {
+            Header header = new Header(null, null, iconRes, tintIcon, fragmentName, false, headerId, -1);
+            header.titleRes = titleRes;
+            header.summaryRes = summaryRes;
+            return header;
+        }
+
         /**
          * Create a new header separator
          * @return New header separator
@@ -120,8 +135,20 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
             return new Header(title, null, 0, false, null, true, INVALID_ID, -1);
         }
 
-        private Header() {
+        /**
+         * Create a new header separator whose title is resolved from resources when shown
+         * @param titleRes Header separator title string resource id
+         * @return New header separator
+         */
+        public static Header createHeaderSeparator(int titleRes) {
+            Header header = new Header(null, null, 0, false, null, true, INVALID_ID, -1);
+            header.titleRes = titleRes;
+            return header;
+        }
+
+        Header() {
             this.color = -1;
+            this.id = INVALID_ID;
         }
 
         private Header(CharSequence title, CharSequence summary, int iconRes, boolean tintIcon,
@@ -138,13 +165,30 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
 
         CharSequence title;
         CharSequence summary;
+        // Used when title or summary is null, xml headers keep them to resolve texts again on locale change
+        int titleRes;
+        int summaryRes;
         int iconRes;
         boolean tintIcon;
         CharSequence fragmentName;
+        // Preferences xml of the fragment, indexed for search
+        int preferencesRes;
         boolean isSeparator;
         int color;
         int id;
 
+        // Depends on next header, kept up to date by HeaderListFragment
+        boolean showDivider;
+
+        // Headers are also created by loaders in background
+        private static final AtomicLong sNextStableId = new AtomicLong();
+        // Unique per header instance, used as RecyclerView stable id
+        final long stableId = sNextStableId.getAndIncrement();
+
+        // Set while header is in a list
+        HeaderListFragment owner;
+        int position;
+
         /**
          * @return Header id if set when creating this header, {@link #INVALID_ID} else
          */
@@ -153,14 +197,131 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
         }
 
         /**
-         * Set background color of this header. A {@link #notifyHeadersChanged()} is required to apply changes
+         * Set background color of this header, its row is updated if visible
          * @param color Color to be the background color
          */
         public void setBackgroundColor(int color) {
             this.color = color;
+            notifyChanged();
+        }
+
+        /**
+         * Set title of this header, its row is updated if visible
+         * @param title New title
+         */
+        public void setTitle(CharSequence title) {
+            this.title = title;
+            this.titleRes = 0;
+            notifyChanged();
+        }
+
+        /**
+         * Set summary of this header, its row is updated if visible
+         * @param summary New summary, or null to hide summary
+         */
+        public void setSummary(CharSequence summary) {
+            this.summary = summary;
+            this.summaryRes = 0;
+            notifyChanged();
+        }
+
+        /**
+         * Set icon of this header, its row is updated if visible
+         * @param iconRes Icon resource id, or 0 to hide icon
+         * @param tintIcon Whether to tint icon
+         */
+        public void setIcon(int iconRes, boolean tintIcon) {
+            this.iconRes = iconRes;
+            this.tintIcon = tintIcon;
+            notifyChanged();
+        }
+
+        /**
+         * Set the preferences xml inflated by this header fragment, so that its preferences can be found
+         * by {@link PreferenceHeadersActivity#search(String)}. Must be set before the header is added
+         * @param xmlResId Preferences xml resource id, or 0 if header fragment has no preferences to search
+         */
+        public void setPreferencesResource(int xmlResId) {
+            this.preferencesRes = xmlResId;
+        }
+
+        private void notifyChanged() {
+            if (owner != null)
+                owner.onHeaderChanged(this);
+        }
+
+        /**
+         * Resolve again texts of xml headers, that were resolved when loaded. Texts set since are kept
+         */
+        void resolveTexts(Context context) {
+            if (titleRes != 0 && title != null)
+                title = context.getText(titleRes);
+            if (summaryRes != 0 && summary != null)
+                summary = context.getText(summaryRes);
+        }
+
+        CharSequence getTitle(Context context) {
+            return title == null && titleRes != 0 ? context.getText(titleRes) : title;
+        }
+
+        CharSequence getSummary(Context context) {
+            return summary == null && summaryRes != 0 ? context.getText(summaryRes) : summary;
         }
     }
 
+    /**
+     * Settings search match, either a header or a preference of a header fragment
+     */
+    public static class SearchResult {
+
+        private final Header mHeader;
+        private final CharSequence mTitle;
+        private final CharSequence mSummary;
+        private final String mPreferenceKey;
+
+        SearchResult(Header header, CharSequence title, CharSequence summary, String preferenceKey) {
+            mHeader = header;
+            mTitle = title;
+            mSummary = summary;
+            mPreferenceKey = preferenceKey;
+        }
+
+        /**
+         * @return Matching header, or header whose fragment contains the matching preference
+         */
+        public Header getHeader() {
+            return mHeader;
+        }
+
+        /**
+         * @return Title of the matching header or preference
+         */
+        public CharSequence getTitle() {
+            return mTitle;
+        }
+
+        /**
+         * @return Summary of the matching header or preference, as declared in xml
+         */
+        @Nullable
+        public CharSequence getSummary() {
+            return mSummary;
+        }
+
+        /**
+         * @return Key of the matching preference, null if a header matched or if preference has no key
+         */
+        @Nullable
+        public String getPreferenceKey() {
+            return mPreferenceKey;
+        }
+    }
+
+    /**
+     * Maximum result count of {@link #search(String)}
+     */
+    public static final int DEFAULT_MAX_SEARCH_RESULTS = 50;
+
     /**
      * This stage means that user is in the header list
      */
@@ -174,6 +335,12 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
     private int mDecorColor;
     private int mUserStage;
 
+    private HeaderFragmentPrefetcher mPrefetcher;
+    private HeaderFragmentKeeper mKeeper;
+    private boolean mResumed;
+
+    private SearchIndex mSearchIndex = new SearchIndex();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -183,11 +350,60 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
             getFragmentManager()
                     .beginTransaction()
                     .add(R.id.pk_fragments_frame, new HeaderListFragment(), HeaderListFragment.FRAGMENT_TAG)
+                    .add(new HeadersHolderFragment(), HeadersHolderFragment.FRAGMENT_TAG)
                     .commit();
             getFragmentManager().executePendingTransactions();
         }
 
-        setDecorColor(Utils.getAttrColor(this, R.attr.colorAccent));
+        setDecorColor(ResolvedStyle.get(this).accentColor);
+        mPrefetcher = new HeaderFragmentPrefetcher(this, R.id.pk_fragments_frame, savedInstanceState);
+        mKeeper = new HeaderFragmentKeeper(this, R.id.pk_fragments_frame, HeaderListFragment.FRAGMENT_TAG,
+                savedInstanceState);
+        // Hidden header list is started again but does not sync stage
+        if (mKeeper.isFragmentShown())
+            mUserStage = STAGE_HEADER_FRAGMENT_OPENED;
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mResumed = true;
+        mPrefetcher.schedule();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mResumed = false;
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mPrefetcher.onStop();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mPrefetcher.onSaveInstanceState(outState);
+        mKeeper.onSaveInstanceState(outState);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // UI hidden alone is no memory pressure, kept fragments make coming back instant
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mKeeper.onLowMemory();
+            mPrefetcher.onLowMemory();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPrefetcher.onDestroy();
     }
 
     private HeaderListFragment getHeaderListFragment() {
@@ -195,18 +411,42 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
     }
 
     /**
-     * Add headers from xml
+     * Add headers from xml at the bottom of the list. Parsed headers are cached, next launches read the cache
+     * instead of xml. Loaded headers survive configuration changes, adding them again once activity is recreated
+     * does not load them again. Adding the same xml twice has no effect
      * @param xmlResId Headers xml resource id
+     * @see #addHeadersFromResourcesAsync(int)
      */
     public void addHeadersFromResources(int xmlResId) {
-        getHeaderListFragment().addHeadersFromXml(xmlResId);
+        getHeaderListFragment().addHeadersFromXml(xmlResId, false);
+    }
+
+    /**
+     * Same as {@link #addHeadersFromResources(int)}, but headers are loaded in background and shown once ready,
+     * at the position the list had when this method was called. Headers added meanwhile keep their order relative
+     * to xml headers. Until {@link #onHeadersLoaded(int, boolean, long)} is called for this xml, its headers are
+     * not returned by {@link #findHeaderById(int)}, {@link #getHeaderAt(int)} nor counted by {@link #getHeaderCount()},
+     * and positions given to {@link #addHeaderAt(Header, int)} only count headers already shown
+     * @param xmlResId Headers xml resource id
+     */
+    public void addHeadersFromResourcesAsync(int xmlResId) {
+        getHeaderListFragment().addHeadersFromXml(xmlResId, true);
+    }
+
+    /**
+     * @return {@link RecyclerView} containing headers, null if header list is not shown
+     */
+    public RecyclerView getHeadersRecyclerView() {
+        return getHeaderListFragment().getRecyclerView();
     }
 
     /**
-     * @return {@link ListView} containing headers
+     * @param headerId Id given when creating the header, or android:id for xml headers
+     * @return First header with this id, or null if there is none
      */
-    public ListView getHeadersListView() {
-        return getHeaderListFragment().getListView();
+    @Nullable
+    public Header findHeaderById(int headerId) {
+        return getHeaderListFragment().findHeaderById(headerId);
     }
 
     /**
@@ -233,7 +473,16 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
     }
 
     /**
-     * Add header at desired index, throws {@link IndexOutOfBoundsException} if index isn't valid
+     * Add headers at the bottom of the list, list is updated once
+     * @param headers Headers to add, typically built by code generated from headers xml
+     */
+    public void addHeaders(List<Header> headers) {
+        getHeaderListFragment().addHeaders(headers);
+    }
+
+    /**
+     * Add header at desired index, throws {@link IndexOutOfBoundsException} if index isn't valid. Headers still
+     * loading from {@link #addHeadersFromResourcesAsync(int)} are not counted
      * @param header Header to add
      * @param position Desired index
      */
@@ -242,12 +491,125 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
     }
 
     /**
-     * Cause reload of all headers views. Call this method when any modifications have been done to an header
+     * Update the row of the header with given id, if it is visible. Header setters already do this,
+     * call this method after header changes made through other means
+     * @param headerId Id of the header to update
+     */
+    public void notifyHeaderChanged(int headerId) {
+        HeaderListFragment fragment = getHeaderListFragment();
+        Header header = fragment.findHeaderById(headerId);
+        if (header != null)
+            fragment.onHeaderChanged(header);
+    }
+
+    /**
+     * Cause reload of all headers views. Prefer {@link #notifyHeaderChanged(int)} when a single header changed
      */
     public void notifyHeadersChanged() {
         getHeaderListFragment().notifyHeadersChanged();
     }
 
+    /**
+     * Search headers titles and summaries, and titles, summaries and entries of the preferences of headers having
+     * a preferences xml (See {@link Header#setPreferencesResource(int)}). Preferences xml are indexed in background
+     * once their header is added, results only include those already indexed.
+     * @param query Words results must all contain, a word matches any word starting with it. Case and accents are ignored
+     * @return Up to {@link #DEFAULT_MAX_SEARCH_RESULTS} results, headers and preferences in the order they were indexed
+     */
+    public List<SearchResult> search(String query) {
+        return search(query, DEFAULT_MAX_SEARCH_RESULTS);
+    }
+
+    /**
+     * @see #search(String)
+     */
+    public List<SearchResult> search(String query, int maxResults) {
+        List<SearchIndex.Entry> entries = mSearchIndex.query(query, maxResults);
+        List<SearchResult> results = new ArrayList<>(entries.size());
+
+        for (SearchIndex.Entry entry : entries)
+            results.add(new SearchResult(entry.header, entry.title, entry.summary, entry.key));
+        return results;
+    }
+
+    /**
+     * Open the fragment of the result header, scrolled to the matching preference if it has a key
+     * @param result Result returned by {@link #search(String)}
+     */
+    public void openSearchResult(SearchResult result) {
+        openHeader(result.getHeader(), result.getPreferenceKey());
+    }
+
+    /**
+     * Add texts of inserted headers to search index and queue indexing of their preferences xml. Preferences are
+     * indexed for each header showing them, so that a result opens the header it was found under
+     */
+    void indexHeaders(List<Header> headers) {
+        for (Header header : headers) {
+            if (header.isSeparator)
+                continue;
+
+            CharSequence title = header.getTitle(this);
+            CharSequence summary = header.getSummary(this);
+            mSearchIndex.add(new SearchIndex.Entry(header, title, summary), title, summary);
+
+            if (header.preferencesRes == 0)
+                continue;
+
+            SearchIndexer.indexAsync(getApplicationContext(), header, mSearchIndex, new SearchIndexer.Callback() {
+                @Override
+                public void onXmlIndexed(int xmlResId, boolean fromCache, long indexTimeNanos) {
+                    onSearchIndexUpdated(xmlResId, fromCache, indexTimeNanos);
+                }
+            });
+        }
+    }
+
+    /**
+     * Enable creation of the fragments of the headers most likely to be opened while main thread is idle, so that
+     * their preferences are already inflated when their header is clicked. Likely headers are the one given to
+     * {@link #setFragmentPrefetchHint(Header)}, then the most opened ones. Prefetched fragments are kept within
+     * a count limit, see {@link #setFragmentPrefetchLimit(int)}. Disabled by default
+     * @param enabled Whether to prefetch fragments
+     */
+    public void setFragmentPrefetchEnabled(boolean enabled) {
+        mPrefetcher.setEnabled(enabled);
+    }
+
+    /**
+     * @param header Header whose fragment should be prefetched first, or null to only rely on opened headers history
+     */
+    public void setFragmentPrefetchHint(@Nullable Header header) {
+        mPrefetcher.setHint(header);
+    }
+
+    /**
+     * Set how many prefetched fragments may be kept at once, least recently used ones are removed beyond it.
+     * Default is 2, lower it for headers with large preference hierarchies
+     * @param count Maximum count of prefetched fragments, 0 prefetches none
+     */
+    public void setFragmentPrefetchLimit(int count) {
+        mPrefetcher.setLimit(count);
+    }
+
+    /**
+     * Keep the fragments of the last opened headers alive when leaving them. Header list and header fragments are
+     * then hidden and shown instead of being replaced, so that going back to the list or opening one of these
+     * headers again is instant. Kept fragments that are not shown are removed under memory pressure.
+     * Must be called before any header is opened, typically in {@link #onCreate(Bundle)}. Disabled by default
+     * @param count Maximum count of header fragments kept alive, shown one included, or 0 to disable
+     */
+    public void setKeepAliveFragmentCount(int count) {
+        mKeeper.setMaxCount(count);
+    }
+
+    /**
+     * Fragment transactions can be committed and user is not waiting for a fragment
+     */
+    boolean canPrefetchFragments() {
+        return mResumed && !isFinishing() && mUserStage == STAGE_HEADERS_LIST;
+    }
+
     /**
      * Set the color of all decoration of this activity (Separator titles, icon tint if enabled, preference category titles ..)
      * @param color Decoration color
@@ -268,7 +630,7 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
     public void onBackPressed() {
         if (getFragmentManager().getBackStackEntryCount() > 0)
             getFragmentManager().popBackStack();
-        else
+        else if (!mKeeper.showHeaderList())
             super.onBackPressed();
     }
 
@@ -278,6 +640,7 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
             String defaultTitle = onGetDefaultTitle();
             if (defaultTitle != null)
                 setTitle(defaultTitle);
+            mPrefetcher.schedule();
         }
         onUserStageChanged(stage);
     }
@@ -289,6 +652,26 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
         return mUserStage;
     }
 
+    /**
+     * Override this method to get a callback when headers added from resources have been loaded and are shown.
+     * For {@link #addHeadersFromResources(int)}, it is called before the method returns
+     * @param xmlResId Headers xml resource id
+     * @param fromCache true if headers were read from cache, false if xml was parsed
+     * @param loadTimeNanos Time spent loading headers, in nanoseconds
+     */
+    protected void onHeadersLoaded(int xmlResId, boolean fromCache, long loadTimeNanos) {
+    }
+
+    /**
+     * Override this method to get a callback when preferences of a header fragment become searchable,
+     * for example to refresh shown search results. Called for each header declaring a preferences xml
+     * @param xmlResId Preferences xml resource id
+     * @param fromCache true if texts were read from cache, false if xml was parsed
+     * @param indexTimeNanos Time spent indexing this xml in background, in nanoseconds
+     */
+    protected void onSearchIndexUpdated(int xmlResId, boolean fromCache, long indexTimeNanos) {
+    }
+
     /**
      * Override this method to get a callback of any user stage changes
      * @param newStage The new user stage
@@ -302,26 +685,67 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
      */
     @Override
     public void onHeaderClicked(PreferenceHeadersActivity.Header header) {
+        openHeader(header, null);
+    }
+
+    private void openHeader(Header header, String preferenceKey) {
         CharSequence fragmentName = header.fragmentName;
 
         if (!TextUtils.isEmpty(fragmentName)) {
-            Fragment fragment = Fragment.instantiate(this, fragmentName.toString());
+            String name = fragmentName.toString();
+            mPrefetcher.onFragmentOpened(name);
+
+            // Kept fragments are scrolled once shown
+            Fragment fragment = mKeeper.isEnabled() ? mKeeper.find(name) : null;
+            boolean kept = fragment != null;
+
+            // Prefetched fragments have no arguments
+            if (!kept && preferenceKey == null)
+                fragment = mPrefetcher.take(name);
+            boolean prefetched = !kept && fragment != null;
+
+            if (fragment == null) {
+                Bundle args = null;
+                if (preferenceKey != null) {
+                    args = new Bundle();
+                    args.putString(com.majeur.preferencekit.PreferenceFragment.ARG_SCROLL_TO_KEY, preferenceKey);
+                }
+                fragment = Fragment.instantiate(this, name, args);
+            }
 
             if (!(fragment instanceof PreferenceFragment))
                 throw new IllegalStateException("Fragment must be an instance of com.majeur.preferencekit.PreferenceFragment");
 
-            setTitle(header.title);
+            setTitle(header.getTitle(this));
             syncUserStage(STAGE_HEADER_FRAGMENT_OPENED);
-            startFragment(fragment);
+
+            if (mKeeper.isEnabled()) {
+                // Kept fragment is no longer a prefetched one, it must not be removed by prefetcher
+                if (prefetched)
+                    mPrefetcher.release(name);
+                mKeeper.show(name, fragment);
+                if (kept && preferenceKey != null)
+                    ((com.majeur.preferencekit.PreferenceFragment) fragment).scrollToPreference(preferenceKey);
+            } else {
+                startFragment(fragment, prefetched);
+            }
         }
     }
 
-    private void startFragment(Fragment fragment) {
+    private void startFragment(Fragment fragment, boolean prefetched) {
         FragmentTransaction transaction = getFragmentManager().beginTransaction();
 
         transaction.setCustomAnimations(android.R.animator.fade_in, android.R.animator.fade_out);
         transaction.addToBackStack(fragment.toString());
-        transaction.replace(R.id.pk_fragments_frame, fragment);
+        if (prefetched) {
+            // Already added detached, back navigation detaches it again instead of destroying it
+            Fragment current = getFragmentManager().findFragmentById(R.id.pk_fragments_frame);
+            if (current != null)
+                transaction.remove(current);
+            transaction.attach(fragment);
+        } else {
+            transaction.replace(R.id.pk_fragments_frame, fragment);
+        }
         transaction.commit();
     }
 
@@ -332,138 +756,131 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
 
         static final String FRAGMENT_TAG = "header_list_fragment";
 
-        private List<Header> mHeaders = new LinkedList<>();
-        private ListView mListView;
+        private ArrayList<Header> mHeaders = new ArrayList<>();
+        // Header id to position of the first header with this id
+        private SparseIntArray mPositionsById = new SparseIntArray();
+        private List<PendingHeaders> mPendingHeaders = new ArrayList<>();
+        // Headers xml already added
+        private SparseBooleanArray mAddedXml = new SparseBooleanArray();
+        private RecyclerView mRecyclerView;
 
         private int mDecorColor;
 
         @Override
         public void onDestroy() {
             super.onDestroy();
+            for (Header header : mHeaders)
+                header.owner = null;
             mHeaders.clear();
             mHeaders = null;
+            mPositionsById.clear();
         }
 
         @Override
         public void onStart() {
             super.onStart();
-            ((PreferenceHeadersActivity) getActivity()).syncUserStage(STAGE_HEADERS_LIST);
+            // Hidden behind a kept header fragment
+            if (!isHidden())
+                ((PreferenceHeadersActivity) getActivity()).syncUserStage(STAGE_HEADERS_LIST);
+        }
+
+        @Override
+        public void onHiddenChanged(boolean hidden) {
+            super.onHiddenChanged(hidden);
+            // Shown again by back navigation in keep-alive mode
+            if (!hidden)
+                ((PreferenceHeadersActivity) getActivity()).syncUserStage(STAGE_HEADERS_LIST);
         }
 
         @Nullable
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-            mListView = new ListView(getActivity());
+            mRecyclerView = new RecyclerView(getActivity());
             ViewGroup.LayoutParams params = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
                     ViewGroup.LayoutParams.MATCH_PARENT);
-            mListView.setLayoutParams(params);
-            mListView.setDivider(null);
+            mRecyclerView.setLayoutParams(params);
+            mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+            mRecyclerView.setAdapter(mAdapter);
 
-            mListView.setAdapter(mAdapter);
-            mListView.setOnItemClickListener(mOnItemClickListener);
-
-            return mListView;
+            return mRecyclerView;
         }
 
         @Override
         public void onDestroyView() {
             super.onDestroyView();
-            mListView.setAdapter(null);
-            mListView = null;
+            mRecyclerView.setAdapter(null);
+            mRecyclerView = null;
         }
 
         public void setDecorColor(int color) {
+            if (color == mDecorColor)
+                return;
+
             mDecorColor = color;
-            mAdapter.notifyDataSetChanged();
+            mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
         }
 
-        public ListView getListView() {
-            return mListView;
+        public RecyclerView getRecyclerView() {
+            return mRecyclerView;
         }
 
-        private AdapterView.OnItemClickListener mOnItemClickListener = new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                Header header = mHeaders.get(i);
-                ((HeaderListFragmentCallback) getActivity()).onHeaderClicked(header);
-            }
-        };
-
-        private BaseAdapter mAdapter = new BaseAdapter() {
+        private RecyclerView.Adapter<HeaderViewHolder> mAdapter = new RecyclerView.Adapter<HeaderViewHolder>() {
 
-            final int VIEW_TYPE_SEPARATOR = 0;
-            final int VIEW_TYPE_HEADER = 1;
-
-            @Override
-            public int getCount() {
-                return mHeaders == null ? 0 : mHeaders.size();
-            }
-
-            @Override
-            public Header getItem(int i) {
-                return mHeaders.get(i);
+            {
+                setHasStableIds(true);
             }
 
             @Override
-            public long getItemId(int i) {
-                return getItem(i).hashCode();
+            public int getItemCount() {
+                return mHeaders == null ? 0 : mHeaders.size();
             }
 
             @Override
-            public int getViewTypeCount() {
-                return 2;
+            public long getItemId(int position) {
+                return mHeaders.get(position).stableId;
             }
 
             @Override
             public int getItemViewType(int position) {
-                return getItem(position).isSeparator ? VIEW_TYPE_SEPARATOR : VIEW_TYPE_HEADER;
-            }
-
-            class ViewHolder {
-                ImageView icon;
-                TextView title;
-                TextView summary;
-                View shadowSeparator;
-                View divider;
-                int viewType;
+                return mHeaders.get(position).isSeparator ? HeaderViewHolder.VIEW_TYPE_SEPARATOR : HeaderViewHolder.VIEW_TYPE_HEADER;
             }
 
             @Override
-            public View getView(int position, View view, ViewGroup parent) {
-                final int viewType = getItemViewType(position);
-                final boolean isSeparator = viewType == VIEW_TYPE_SEPARATOR;
-                final boolean createNewView = view == null || ((ViewHolder) view.getTag()).viewType != viewType;
-
-                ViewHolder holder;
-                if (createNewView) {
-                    view = getActivity().getLayoutInflater().inflate(isSeparator ? R.layout.header_separator : R.layout.header_row,
-                            parent, false);
-                    holder = new ViewHolder();
-                    holder.viewType = viewType;
-                    holder.title = (TextView) view.findViewById(R.id.pk_title);
-
-                    if (isSeparator) {
-                        holder.title.setTypeface(Utils.Typefaces
-                                .getRobotoMedium(getActivity()));
-                        holder.title.setTextColor(mDecorColor);
-                        holder.shadowSeparator = view.findViewById(R.id.pk_shadows);
-                    } else {
-                        holder.summary = (TextView) view.findViewById(R.id.pk_summary);
-                        holder.icon = (ImageView) view.findViewById(R.id.pk_icon);
-                        holder.divider = view.findViewById(R.id.pk_divider);
-                    }
-                    view.setTag(holder);
+            public HeaderViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                final boolean isSeparator = viewType == HeaderViewHolder.VIEW_TYPE_SEPARATOR;
+                View view = getActivity().getLayoutInflater().inflate(isSeparator ? R.layout.header_separator : R.layout.header_row,
+                        parent, false);
+
+                final HeaderViewHolder holder = new HeaderViewHolder(view, viewType);
+                if (isSeparator) {
+                    holder.title.setTypeface(Utils.Typefaces.getRobotoMedium(getActivity()));
                 } else {
-                    holder = (ViewHolder) view.getTag();
+                    view.setOnClickListener(new View.OnClickListener() {
+                        @Override
+                        public void onClick(View view) {
+                            int position = holder.getAdapterPosition();
+                            if (position != RecyclerView.NO_POSITION)
+                                ((HeaderListFragmentCallback) getActivity()).onHeaderClicked(mHeaders.get(position));
+                        }
+                    });
                 }
+                return holder;
+            }
 
-                Header header = getItem(position);
-
-                if (header.title != null) {
-                    holder.title.setText(header.title);
+            @Override
+            public void onBindViewHolder(HeaderViewHolder holder, int position) {
+                final boolean isSeparator = holder.viewType == HeaderViewHolder.VIEW_TYPE_SEPARATOR;
+                Header header = mHeaders.get(position);
+                CharSequence title = header.getTitle(getActivity());
+                CharSequence summary = header.getSummary(getActivity());
+
+                if (title != null) {
+                    holder.title.setText(title);
                     holder.title.setVisibility(View.VISIBLE);
 
-                    if (!isSeparator)
+                    if (isSeparator)
+                        holder.title.setTextColor(mDecorColor);
+                    else
                         holder.title.setTextColor(header.color == -1 ? Color.BLACK : Color.WHITE);
                 } else {
                     holder.title.setVisibility(View.GONE);
@@ -478,8 +895,8 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
                     }
 
                 } else {
-                    if (header.summary != null) {
-                        holder.summary.setText(header.summary);
+                    if (summary != null) {
+                        holder.summary.setText(summary);
                         holder.summary.setVisibility(View.VISIBLE);
                         holder.summary.setTextColor(header.color == -1 ? Color.BLACK : Color.WHITE);
 
@@ -499,35 +916,68 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
                         holder.icon.setVisibility(View.GONE);
                     }
 
-                    holder.divider.setVisibility(getDividerVisibility(position));
+                    holder.divider.setVisibility(header.showDivider ? View.VISIBLE : View.GONE);
                 }
 
                 if (header.color != -1)
-                    view.setBackgroundColor(header.color);
+                    holder.itemView.setBackgroundColor(header.color);
+                else if (isSeparator)
+                    holder.itemView.setBackgroundDrawable(null);
                 else
-                    view.setBackgroundDrawable(null);
-
-                return view;
+                    holder.itemView.setBackgroundResource(getSelectableBackgroundRes());
             }
+        };
 
-            int getDividerVisibility(int position) {
-                if (position == (getCount() - 1))
-                    return View.VISIBLE;
-                else if (getItem(position).color != -1)
-                    return View.GONE;
+        private int mSelectableBackgroundRes;
 
-                Header header = getItem(position + 1);
-                return header.isSeparator ? View.GONE : View.VISIBLE;
+        /**
+         * Rows are not drawn over a list selector anymore, they need their own touch feedback
+         */
+        private int getSelectableBackgroundRes() {
+            if (mSelectableBackgroundRes == 0) {
+                TypedValue typedValue = new TypedValue();
+                getActivity().getTheme().resolveAttribute(android.R.attr.selectableItemBackground, typedValue, true);
+                mSelectableBackgroundRes = typedValue.resourceId;
             }
+            return mSelectableBackgroundRes;
+        }
 
-            @Override
-            public boolean isEnabled(int position) {
-                return getItemViewType(position) == VIEW_TYPE_HEADER;
+        private static class HeaderViewHolder extends RecyclerView.ViewHolder {
+
+            static final int VIEW_TYPE_SEPARATOR = 0;
+            static final int VIEW_TYPE_HEADER = 1;
+
+            final int viewType;
+            final TextView title;
+            ImageView icon;
+            TextView summary;
+            View shadowSeparator;
+            View divider;
+
+            HeaderViewHolder(View view, int viewType) {
+                super(view);
+                this.viewType = viewType;
+                title = (TextView) view.findViewById(R.id.pk_title);
+
+                if (viewType == VIEW_TYPE_SEPARATOR) {
+                    shadowSeparator = view.findViewById(R.id.pk_shadows);
+                } else {
+                    summary = (TextView) view.findViewById(R.id.pk_summary);
+                    icon = (ImageView) view.findViewById(R.id.pk_icon);
+                    divider = view.findViewById(R.id.pk_divider);
+                }
             }
-        };
+        }
 
         void notifyHeadersChanged() {
-            mAdapter.notifyDataSetChanged();
+            // Background colors may have changed
+            updateDividers(0, mHeaders.size());
+            mAdapter.notifyItemRangeChanged(0, mHeaders.size());
+        }
+
+        Header findHeaderById(int headerId) {
+            int position = mPositionsById.get(headerId, -1);
+            return position != -1 ? mHeaders.get(position) : null;
         }
 
         int getHeaderCount() {
@@ -538,127 +988,172 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
             return mHeaders.get(position);
         }
 
-        void addHeaderAt(Header header, int position) {
-            if (position == -1)
-                mHeaders.add(header);
-            else
-                mHeaders.add(position, header);
-
-            notifyHeadersChanged();
+        void addHeaders(List<Header> headers) {
+            int start = mHeaders.size();
+            mHeaders.addAll(headers);
+            onHeadersInserted(start, headers.size());
         }
 
-        void addHeadersFromXml(int xmlResId) {
-            Resources resources = getResources();
-            List<Header> localList = new LinkedList<>();
-            XmlResourceParser parser = null;
-
-            try {
-                parser = resources.getXml(xmlResId);
-                AttributeSet attrs = Xml.asAttributeSet(parser);
-
-                int type;
-                while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                        && type != XmlPullParser.START_TAG) {
-                    // Parse next until start tag is found
-                }
-
-                String nodeName = parser.getName();
-                if (!"headers".equals(nodeName)) {
-                    throw new RuntimeException(
-                            "XML document must start with <headers> tag; found "
-                                    + nodeName + " at " + parser.getPositionDescription());
+        void addHeaderAt(Header header, int position) {
+            if (position == -1) {
+                position = mHeaders.size();
+            } else {
+                // Header is inserted before xml headers still loading at this position
+                for (PendingHeaders pendingHeaders : mPendingHeaders) {
+                    if (pendingHeaders.position >= position)
+                        pendingHeaders.position++;
                 }
+            }
+            mHeaders.add(position, header);
 
-                final int outerDepth = parser.getDepth();
-                while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                        && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
-                    if (type == XmlPullParser.END_TAG || type == XmlPullParser.TEXT) {
-                        continue;
-                    }
+            onHeadersInserted(position, 1);
+        }
 
-                    nodeName = parser.getName();
-                    if ("header".equals(nodeName)) {
-                        Header header = new Header();
+        /**
+         * Update positions index and divider flags affected by an insertion, then notify only the rows that changed
+         */
+        private void onHeadersInserted(int start, int count) {
+            if (count == 0)
+                return;
 
-                        TypedArray typedArray = getActivity().obtainStyledAttributes(attrs, R.styleable.PreferenceHeader);
+            // Ids met in this pass, only their first header is indexed
+            SparseBooleanArray indexedIds = new SparseBooleanArray();
+            for (int i = start; i < mHeaders.size(); i++) {
+                Header header = mHeaders.get(i);
+                header.owner = this;
+                header.position = i;
+
+                int id = header.id;
+                if (id == Header.INVALID_ID)
+                    continue;
+
+                // Positions before start are still valid, those after are shifted
+                int position = mPositionsById.get(id, -1);
+                if (position == -1 || (position >= start && !indexedIds.get(id)))
+                    mPositionsById.put(id, i);
+                indexedIds.put(id, true);
+            }
 
-                        TypedValue typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_title);
-                        if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
-                            if (typedValue.resourceId != 0) {
-                                header.title = resources.getText(typedValue.resourceId);
-                            } else {
-                                header.title = typedValue.string;
-                            }
-                        }
+            // Divider of the header before the inserted ones depends on its new next header
+            boolean previousDivider = start > 0 && mHeaders.get(start - 1).showDivider;
+            updateDividers(Math.max(0, start - 1), start + count);
 
-                        typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_summary);
-                        if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
-                            if (typedValue.resourceId != 0) {
-                                header.summary = resources.getText(typedValue.resourceId);
-                            } else {
-                                header.summary = typedValue.string;
-                            }
-                        }
+            if (getActivity() != null)
+                ((PreferenceHeadersActivity) getActivity()).indexHeaders(mHeaders.subList(start, start + count));
 
-                        header.id = typedArray.getResourceId(R.styleable.PreferenceHeader_id, 0);
-                        header.iconRes = typedArray.getResourceId(R.styleable.PreferenceHeader_icon, 0);
-                        header.fragmentName = typedArray.getString(R.styleable.PreferenceHeader_fragment);
-                        header.tintIcon = typedArray.getBoolean(R.styleable.PreferenceHeader_tintIcon, false);
-                        typedArray.recycle();
+            mAdapter.notifyItemRangeInserted(start, count);
+            if (start > 0 && mHeaders.get(start - 1).showDivider != previousDivider)
+                mAdapter.notifyItemChanged(start - 1);
+            // Former first row may be a separator that now needs its shadow
+            if (start == 0 && count < mHeaders.size())
+                mAdapter.notifyItemChanged(count);
+        }
 
-                        final int innerDepth = parser.getDepth();
-                        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                                && (type != XmlPullParser.END_TAG || parser.getDepth() > innerDepth)) {
+        /**
+         * Rebind the row of a single header, RecyclerView skips it if it is not visible
+         */
+        void onHeaderChanged(Header header) {
+            // Own divider depends on background color
+            updateDividers(header.position, header.position + 1);
+            mAdapter.notifyItemChanged(header.position);
+        }
 
-                            // Skip inner fragment args
-                        }
+        private void updateDividers(int start, int end) {
+            int size = mHeaders.size();
+            for (int i = start; i < end; i++) {
+                Header header = mHeaders.get(i);
+                if (i == size - 1)
+                    header.showDivider = true;
+                else if (header.color != -1)
+                    header.showDivider = false;
+                else
+                    header.showDivider = !mHeaders.get(i + 1).isSeparator;
+            }
+        }
 
-                        localList.add(header);
-                    } else if ("separator".equals(nodeName)) {
-                        Header header = new Header();
-                        header.isSeparator = true;
+        void addHeadersFromXml(final int xmlResId, boolean async) {
+            if (mAddedXml.get(xmlResId))
+                return;
+            mAddedXml.put(xmlResId, true);
+
+            final HeadersHolderFragment holder = (HeadersHolderFragment) getFragmentManager()
+                    .findFragmentByTag(HeadersHolderFragment.FRAGMENT_TAG);
+            List<Header> retainedHeaders = holder != null ? holder.getHeaders(getActivity(), xmlResId) : null;
+            if (retainedHeaders != null) {
+                addHeaders(retainedHeaders);
+                ((PreferenceHeadersActivity) getActivity()).onHeadersLoaded(xmlResId, true, 0);
+                return;
+            }
 
-                        TypedArray typedArray = getActivity().obtainStyledAttributes(attrs, R.styleable.PreferenceHeader);
+            final PendingHeaders pendingHeaders = async ? new PendingHeaders(mHeaders.size()) : null;
+            if (pendingHeaders != null)
+                mPendingHeaders.add(pendingHeaders);
+
+            final Locale locale = getResources().getConfiguration().locale;
+            HeadersLoader.Callback callback = new HeadersLoader.Callback() {
+                @Override
+                public void onHeadersLoaded(List<Header> headers, boolean fromCache, long loadTimeNanos) {
+                    // Kept even if activity is being recreated, next one gets them without loading
+                    if (holder != null)
+                        holder.putHeaders(xmlResId, headers, locale);
+
+                    if (mHeaders == null)
+                        return; // Fragment has been destroyed meanwhile
+
+                    if (pendingHeaders != null)
+                        insertPendingHeaders(pendingHeaders, headers);
+                    else
+                        addHeaders(headers);
+                    if (getActivity() != null)
+                        ((PreferenceHeadersActivity) getActivity()).onHeadersLoaded(xmlResId, fromCache, loadTimeNanos);
+                }
+            };
 
-                        TypedValue typedValue = typedArray.peekValue(R.styleable.PreferenceHeader_title);
-                        if (typedValue != null && typedValue.type == TypedValue.TYPE_STRING) {
-                            if (typedValue.resourceId != 0) {
-                                header.title = resources.getText(typedValue.resourceId);
-                            } else {
-                                header.title = typedValue.string;
-                            }
-                        }
+            if (async)
+                HeadersLoader.loadAsync(getActivity(), xmlResId, callback);
+            else
+                HeadersLoader.load(getActivity(), xmlResId, callback);
+        }
 
-                        header.id = typedArray.getResourceId(R.styleable.PreferenceHeader_id, 0);
+        /**
+         * Insert loaded headers at the position reserved when they were requested, other pending positions
+         * are shifted so that xml headers keep the order they were requested in
+         */
+        private void insertPendingHeaders(PendingHeaders pendingHeaders, List<Header> headers) {
+            int index = mPendingHeaders.indexOf(pendingHeaders);
+            mPendingHeaders.remove(index);
+
+            int position = pendingHeaders.position;
+            int count = headers.size();
+            for (int i = 0; i < mPendingHeaders.size(); i++) {
+                PendingHeaders other = mPendingHeaders.get(i);
+                if (other.position > position || (other.position == position && i >= index))
+                    other.position += count;
+            }
 
-                        typedArray.recycle();
+            mHeaders.addAll(position, headers);
+            onHeadersInserted(position, count);
+        }
 
-                        localList.add(header);
-                    } else {
-                        Utils.skipCurrentTag(parser);
-                    }
-                }
+        /**
+         * Position in the list where headers being loaded will be inserted
+         */
+        private static class PendingHeaders {
+            int position;
 
-            } catch (XmlPullParserException e) {
-                throw new RuntimeException("Error parsing headers", e);
-            } catch (IOException e) {
-                throw new RuntimeException("Error parsing headers", e);
-            } finally {
-                if (parser != null)
-                    parser.close();
+            PendingHeaders(int position) {
+                this.position = position;
             }
-
-            mHeaders.addAll(localList);
-            notifyHeadersChanged();
         }
 
         @Override
         public void onSaveInstanceState(Bundle outState) {
             super.onSaveInstanceState(outState);
 
-            if (mListView != null) {
-                int index = mListView.getFirstVisiblePosition();
-                View firstChild = mListView.getChildAt(0);
+            if (mRecyclerView != null) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+                int index = layoutManager.findFirstVisibleItemPosition();
+                View firstChild = mRecyclerView.getChildAt(0);
                 int top = (firstChild == null) ? 0 : firstChild.getTop();
 
                 outState.putInt("index", index);
@@ -670,13 +1165,59 @@ public abstract class PreferenceHeadersActivity extends AppCompatActivity implem
         public void onActivityCreated(Bundle savedInstanceState) {
             super.onActivityCreated(savedInstanceState);
 
-            if (savedInstanceState != null && mListView != null) {
-                int index = savedInstanceState.getInt("index", -1);
+            if (savedInstanceState != null && mRecyclerView != null) {
+                int index = savedInstanceState.getInt("index", RecyclerView.NO_POSITION);
                 int top = savedInstanceState.getInt("top", 0);
 
-                if (index != -1)
-                    mListView.setSelectionFromTop(index, top);
+                if (index != RecyclerView.NO_POSITION)
+                    ((LinearLayoutManager) mRecyclerView.getLayoutManager()).scrollToPositionWithOffset(index, top);
+            }
+        }
+    }
+
+    /**
+     * Headless fragment retained across configuration changes, holding headers loaded from xml so that recreated
+     * activities add them again without loading. Texts of headers are resolved again only when locale changed.
+     */
+    public static class HeadersHolderFragment extends Fragment {
+
+        static final String FRAGMENT_TAG = "headers_holder_fragment";
+
+        private static class Entry {
+            final List<Header> headers;
+            Locale locale;
+
+            Entry(List<Header> headers, Locale locale) {
+                this.headers = headers;
+                this.locale = locale;
+            }
+        }
+
+        private SparseArray<Entry> mEntries = new SparseArray<>();
+
+        public HeadersHolderFragment() {
+            setRetainInstance(true);
+        }
+
+        void putHeaders(int xmlResId, List<Header> headers, Locale locale) {
+            mEntries.put(xmlResId, new Entry(headers, locale));
+        }
+
+        /**
+         * @return Headers loaded from this xml, with texts of current locale, or null if not loaded yet
+         */
+        List<Header> getHeaders(Context context, int xmlResId) {
+            Entry entry = mEntries.get(xmlResId);
+            if (entry == null)
+                return null;
+
+            Locale locale = context.getResources().getConfiguration().locale;
+            if (!locale.equals(entry.locale)) {
+                for (Header header : entry.headers)
+                    header.resolveTexts(context);
+                entry.locale = locale;
             }
+            return entry.headers;
         }
     }
 }
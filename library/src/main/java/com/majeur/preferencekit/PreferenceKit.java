@@ -0,0 +1,382 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.preference.PreferenceGroup;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Entry point for library wide features that are not bound to a single preference.
+ */
+public final class PreferenceKit {
+
+    private static PreferenceStore sPreferenceStore;
+    private static Batch sCurrentBatch;
+    private static ExecutorService sBackgroundExecutor;
+    private static ExecutorService sPrefetchExecutor;
+    private static int sRefreshSuppressionCount;
+    private static long sRowBindCount;
+
+    private PreferenceKit() {
+        // no instances
+    }
+
+    /**
+     * Set the store all PreferenceKit preferences read and write their values through. Must be set before
+     * preferences are inflated.
+     * @param store Store to use, or null to use SharedPreferences of each preference
+     */
+    public static void setPreferenceStore(@Nullable PreferenceStore store) {
+        sPreferenceStore = store;
+    }
+
+    /**
+     * @return The store set through {@link #setPreferenceStore(PreferenceStore)}, or null if SharedPreferences are used
+     */
+    @Nullable
+    public static PreferenceStore getPreferenceStore() {
+        return sPreferenceStore;
+    }
+
+    /**
+     * Run operations as a single transaction. Every value persisted by a PreferenceKit preference while
+     * operations run is written in a single {@link PreferenceStore.Editor}, which is applied once operations
+     * are done. Change listeners are called when values are set, before anything is written, so that they can
+     * still refuse them. Values that end up equal to the stored ones are not written, {@link ValueObserver}s are
+     * notified of the others once they have been applied. If operations throw, nothing is written and preferences
+     * whose value was set reload it from store, listeners already called are not called again. Nested calls join
+     * the outermost batch.
+     * Must be called from UI thread.
+     * @param operations Operations to run, typically calls to preferences setters
+     */
+    public static void batch(@NonNull Runnable operations) {
+        if (sCurrentBatch != null) {
+            operations.run();
+            return;
+        }
+
+        Batch batch = new Batch();
+        sCurrentBatch = batch;
+        boolean completed = false;
+        try {
+            operations.run();
+            completed = true;
+        } finally {
+            sCurrentBatch = null;
+            if (!completed)
+                batch.rollBack();
+        }
+        batch.apply();
+    }
+
+    /**
+     * Write values of every PreferenceKit preference of given hierarchy that has a persisted value, in a compact
+     * versioned binary format. Values are streamed one at a time, given stream is neither buffered nor closed.
+     * @param root Hierarchy to export, typically a PreferenceScreen
+     * @param outputStream Stream to write to
+     * @return Number of exported values
+     * @throws IOException If stream cannot be written
+     */
+    public static int exportValues(@NonNull PreferenceGroup root, @NonNull OutputStream outputStream) throws IOException {
+        return ValuesSnapshot.write(root, outputStream);
+    }
+
+    /**
+     * Read values written by {@link #exportValues(PreferenceGroup, OutputStream)} and apply them to preferences
+     * of given hierarchy. Values are written in a single commit per store, without calling change listeners,
+     * then preferences are refreshed at once. Values whose key does not match a preference of the same
+     * type, or that their preference cannot restore (out of range, not one of entryValues ...), are skipped.
+     * Must be called from UI thread, outside of a {@link #batch(Runnable)}.
+     * @param root Hierarchy to import to, typically the PreferenceScreen of a PreferenceFragment
+     * @param inputStream Stream to read from, it is not closed
+     * @return Number of imported values
+     * @throws IOException If stream cannot be read or is not a valid export, in which case nothing is written
+     */
+    public static int importValues(@NonNull PreferenceGroup root, @NonNull InputStream inputStream) throws IOException {
+        return ValuesSnapshot.read(root, inputStream);
+    }
+
+    /**
+     * Selects preferences of a bulk lock operation
+     */
+    public interface PreferenceMatcher {
+
+        /**
+         * @param preference A lockable preference of the hierarchy
+         * @return true if lock state must be applied to this preference
+         */
+        boolean matches(@NonNull android.preference.Preference preference);
+    }
+
+    /**
+     * Lock or unlock every lockable preference of given hierarchy, nested groups included. Preference list is
+     * refreshed once, instead of once per preference. Must be called from UI thread.
+     * @param root Hierarchy to update, typically a PreferenceScreen
+     * @param locked Lock state to apply
+     * @return Number of matching preferences, whether their state changed or not
+     */
+    public static int setLocked(@NonNull PreferenceGroup root, boolean locked) {
+        return PreferenceLocks.apply(root, locked, null);
+    }
+
+    /**
+     * Lock or unlock lockable preferences of given hierarchy whose key is in given collection
+     * @see #setLocked(PreferenceGroup, boolean)
+     */
+    public static int setLocked(@NonNull PreferenceGroup root, boolean locked, @NonNull Collection<String> keys) {
+        final Set<String> keySet = keys instanceof Set ? (Set<String>) keys : new HashSet<>(keys);
+        return PreferenceLocks.apply(root, locked, new PreferenceMatcher() {
+            @Override
+            public boolean matches(@NonNull android.preference.Preference preference) {
+                return preference.hasKey() && keySet.contains(preference.getKey());
+            }
+        });
+    }
+
+    /**
+     * Lock or unlock lockable preferences of given hierarchy selected by given matcher
+     * @see #setLocked(PreferenceGroup, boolean)
+     */
+    public static int setLocked(@NonNull PreferenceGroup root, boolean locked, @NonNull PreferenceMatcher matcher) {
+        return PreferenceLocks.apply(root, locked, matcher);
+    }
+
+    /**
+     * Lock or unlock lockable preferences of given hierarchy having given lock tag, set with app:lockTag
+     * or setLockTag(). Typically used to unlock every premium preference at once
+     * @see #setLocked(PreferenceGroup, boolean)
+     */
+    public static int setLockedByTag(@NonNull PreferenceGroup root, boolean locked, @NonNull final String lockTag) {
+        return PreferenceLocks.apply(root, locked, new PreferenceMatcher() {
+            @Override
+            public boolean matches(@NonNull android.preference.Preference preference) {
+                return lockTag.equals(((Lockable) preference).getLockTag());
+            }
+        });
+    }
+
+    /**
+     * Stop forwarding PreferenceKit preferences changes to their list until {@link #resumeRefresh()}.
+     * Calls can be nested.
+     */
+    static void suppressRefresh() {
+        sRefreshSuppressionCount++;
+    }
+
+    static void resumeRefresh() {
+        sRefreshSuppressionCount--;
+    }
+
+    static boolean isRefreshSuppressed() {
+        return sRefreshSuppressionCount > 0;
+    }
+
+    /**
+     * @return Number of times rows of PreferenceKit preferences have been bound since process start. A value change
+     * binds the row of its preference only, for example a test can check that it grows by one. Must be called from UI thread
+     */
+    public static long getRowBindCount() {
+        return sRowBindCount;
+    }
+
+    static void onRowBound() {
+        sRowBindCount++;
+    }
+
+    /**
+     * @return Executor used for library background work, tasks are run one at a time
+     */
+    static synchronized ExecutorService getBackgroundExecutor() {
+        if (sBackgroundExecutor == null)
+            sBackgroundExecutor = newDaemonExecutor("PreferenceKit");
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * @return Executor loading preference stores ahead of inflation, separate from background executor so that
+     * UI thread never waits behind unrelated work
+     */
+    static synchronized ExecutorService getPrefetchExecutor() {
+        if (sPrefetchExecutor == null)
+            sPrefetchExecutor = newDaemonExecutor("PreferenceKit-prefetch");
+        return sPrefetchExecutor;
+    }
+
+    private static ExecutorService newDaemonExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The batch operations are currently running in, or null
+     */
+    static Batch getCurrentBatch() {
+        return sCurrentBatch;
+    }
+
+    static final class Batch {
+
+        // Values to write per store, last one set for each key
+        private final Map<PreferenceStore, Map<String, Object>> mValues = new HashMap<>();
+        // Last value offered to observers of each preference
+        private final Map<PersistenceDelegate, Object> mNotifications = new LinkedHashMap<>();
+        // Preferences that wrote a value, their state is reloaded from store if batch is abandoned
+        private final Set<PersistenceDelegate> mTouched = new LinkedHashSet<>();
+
+        Batch() {
+        }
+
+        void putInt(PreferenceStore store, String key, int value) {
+            getPendingValues(store).put(key, value);
+        }
+
+        void putLong(PreferenceStore store, String key, long value) {
+            getPendingValues(store).put(key, value);
+        }
+
+        void putString(PreferenceStore store, String key, String value) {
+            getPendingValues(store).put(key, value);
+        }
+
+        boolean hasPendingValue(PreferenceStore store, String key) {
+            Map<String, Object> values = mValues.get(store);
+            return values != null && values.containsKey(key);
+        }
+
+        Object getPendingValue(PreferenceStore store, String key) {
+            Map<String, Object> values = mValues.get(store);
+            return values != null ? values.get(key) : null;
+        }
+
+        void addTouched(PersistenceDelegate delegate) {
+            mTouched.add(delegate);
+        }
+
+        /**
+         * Drop pending values and notifications, then restore the state of preferences that wrote to this batch
+         * from the values still in store
+         */
+        void rollBack() {
+            mValues.clear();
+            mNotifications.clear();
+            for (PersistenceDelegate delegate : mTouched)
+                delegate.reloadValue();
+            mTouched.clear();
+        }
+
+        /**
+         * Register a value to offer to observers after values are applied. Only the last value of a preference is kept
+         */
+        void addNotification(PersistenceDelegate delegate, Object value) {
+            mNotifications.remove(delegate);
+            mNotifications.put(delegate, value);
+        }
+
+        private Map<String, Object> getPendingValues(PreferenceStore store) {
+            Map<String, Object> values = mValues.get(store);
+            if (values == null) {
+                values = new HashMap<>();
+                mValues.put(store, values);
+            }
+            return values;
+        }
+
+        /**
+         * Write values that differ from stored ones, a single editor per store. Values changed and set back within
+         * the batch are neither written nor notified.
+         */
+        void apply() {
+            Map<PreferenceStore, Set<String>> unchangedKeys = new HashMap<>();
+
+            for (Map.Entry<PreferenceStore, Map<String, Object>> storeValues : mValues.entrySet()) {
+                PreferenceStore store = storeValues.getKey();
+                PreferenceStore.Editor editor = null;
+                Set<String> unchanged = new HashSet<>();
+
+                for (Map.Entry<String, Object> entry : storeValues.getValue().entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    if (isStored(store, key, value)) {
+                        unchanged.add(key);
+                        continue;
+                    }
+
+                    if (editor == null)
+                        editor = store.edit();
+                    if (value instanceof Integer)
+                        editor.putInt(key, (Integer) value);
+                    else if (value instanceof Long)
+                        editor.putLong(key, (Long) value);
+                    else
+                        editor.putString(key, (String) value);
+                }
+
+                if (editor != null)
+                    editor.apply();
+                unchangedKeys.put(store, unchanged);
+            }
+
+            for (Map.Entry<PersistenceDelegate, Object> notification : mNotifications.entrySet()) {
+                PersistenceDelegate delegate = notification.getKey();
+                if (delegate.shouldPersist()) {
+                    Set<String> unchanged = unchangedKeys.get(delegate.getStore());
+                    if (unchanged != null && unchanged.contains(delegate.getKey()))
+                        continue;
+                }
+                delegate.dispatchValueChanged(notification.getValue());
+            }
+        }
+
+        private static boolean isStored(PreferenceStore store, String key, Object value) {
+            if (value == null)
+                return !store.contains(key);
+            if (!store.contains(key))
+                return false;
+
+            try {
+                if (value instanceof Integer)
+                    return store.getInt(key, 0) == (Integer) value;
+                if (value instanceof Long)
+                    return store.getLong(key, 0) == (Long) value;
+                return value.equals(store.getString(key, null));
+            } catch (ClassCastException e) {
+                return false; // Another type is stored under this key, it has to be overwritten
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceScreen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk lock state changes. Preferences are updated while refresh is suppressed, then a single changed preference
+ * per screen notifies its list, which refreshes all of its rows at once instead of each row being bound in place.
+ */
+final class PreferenceLocks {
+
+    private PreferenceLocks() {
+    }
+
+    /**
+     * @param matcher Selects preferences to update, null to update every lockable preference
+     * @return Number of matching preferences
+     */
+    static int apply(PreferenceGroup root, boolean locked, PreferenceKit.PreferenceMatcher matcher) {
+        // First changed preference of each screen
+        List<CommonPreferenceDelegate.Delegatable> changed = new ArrayList<>();
+        int count;
+
+        PreferenceKit.suppressRefresh();
+        try {
+            count = applyToGroup(root, locked, matcher, changed, new boolean[1]);
+        } finally {
+            PreferenceKit.resumeRefresh();
+        }
+
+        for (CommonPreferenceDelegate.Delegatable preference : changed)
+            preference.notifyListChangedInternal();
+        return count;
+    }
+
+    private static int applyToGroup(PreferenceGroup group, boolean locked, PreferenceKit.PreferenceMatcher matcher,
+                                    List<CommonPreferenceDelegate.Delegatable> changed, boolean[] screenNotified) {
+        int count = 0;
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            Preference preference = group.getPreference(i);
+
+            if (preference instanceof Lockable && (matcher == null || matcher.matches(preference))) {
+                count++;
+                Lockable lockable = (Lockable) preference;
+                if (lockable.isLocked() != locked) {
+                    lockable.setLocked(locked);
+                    if (!screenNotified[0] && preference instanceof CommonPreferenceDelegate.Delegatable) {
+                        changed.add((CommonPreferenceDelegate.Delegatable) preference);
+                        screenNotified[0] = true;
+                    }
+                }
+            }
+
+            // Nested screens are shown in their own list
+            if (preference instanceof PreferenceGroup)
+                count += applyToGroup((PreferenceGroup) preference, locked, matcher, changed,
+                        preference instanceof PreferenceScreen ? new boolean[1] : screenNotified);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.support.v4.widget.TextViewCompat;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * Row of PreferenceKit preferences, built in code and laid out in a single pass instead of inflating nested layouts.
+ * Main line holds icon, title and summary, widget slot and lock badge, an optional bottom view spans the row below.
+ * Views keep the framework ids, so that framework preferences bind them. Other children are ignored.
+ */
+class PreferenceRowLayout extends ViewGroup {
+
+    // Margins and widget slot width, in dp
+    private static final int ICON_MARGIN_LEFT = 7;
+    private static final int TEXT_MARGIN_LEFT = 7;
+    private static final int TEXT_MARGIN_RIGHT = 6;
+    private static final int TEXT_MARGIN_VERTICAL = 6;
+    private static final int WIDGET_SLOT_MIN_WIDTH = 48;
+
+    private final ImageView mIcon;
+    private final TextView mTitle;
+    private final TextView mSummary;
+    // Created once row is bound locked
+    private TextView mLockBadge;
+    private View mWidget;
+    private View mBottomView;
+
+    private final int mMinHeight;
+    private final int mIconMarginLeft;
+    private final int mTextMarginLeft;
+    private final int mTextMarginRight;
+    private final int mTextMarginVertical;
+    private final int mWidgetSlotMinWidth;
+
+    // Main line height and widget slot width of last measure
+    private int mLineHeight;
+    private int mWidgetSlotWidth;
+
+    PreferenceRowLayout(Context context) {
+        super(context);
+        ResolvedStyle style = ResolvedStyle.get(context);
+
+        mMinHeight = style.listPreferredItemHeight;
+        mIconMarginLeft = style.dpToPx(ICON_MARGIN_LEFT);
+        mTextMarginLeft = style.dpToPx(TEXT_MARGIN_LEFT);
+        mTextMarginRight = style.dpToPx(TEXT_MARGIN_RIGHT);
+        mTextMarginVertical = style.dpToPx(TEXT_MARGIN_VERTICAL);
+        mWidgetSlotMinWidth = style.dpToPx(WIDGET_SLOT_MIN_WIDTH);
+
+        setBackgroundResource(style.selectableItemBackgroundRes);
+        setPadding(style.preferenceHorizontalPadding, 0, style.preferenceHorizontalPadding, 0);
+
+        mIcon = new ImageView(context);
+        mIcon.setId(android.R.id.icon);
+        addView(mIcon);
+
+        mTitle = new TextView(context);
+        mTitle.setId(android.R.id.title);
+        TextViewCompat.setTextAppearance(mTitle, R.style.TextAppearance_PreferenceKit_Title);
+        mTitle.setSingleLine(true);
+        mTitle.setEllipsize(TextUtils.TruncateAt.MARQUEE);
+        mTitle.setHorizontalFadingEdgeEnabled(true);
+        addView(mTitle);
+
+        mSummary = new TextView(context);
+        mSummary.setId(android.R.id.summary);
+        TextViewCompat.setTextAppearance(mSummary, R.style.TextAppearance_PreferenceKit_Summary);
+        mSummary.setTextColor(style.secondaryTextColor);
+        mSummary.setMaxLines(4);
+        addView(mSummary);
+    }
+
+    /**
+     * Show lock badge at the end of main line, creating it if needed
+     */
+    void showLockBadge(CharSequence text) {
+        if (mLockBadge == null) {
+            ResolvedStyle style = ResolvedStyle.get(getContext());
+            mLockBadge = new TextView(getContext());
+            mLockBadge.setId(R.id.pk_locked_view);
+            mLockBadge.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+            mLockBadge.setPadding(style.dpToPx(2), style.dpToPx(2), style.dpToPx(2), style.dpToPx(1));
+            mLockBadge.setBackgroundColor(style.accentColor);
+            mLockBadge.setTypeface(style.condensedTypeface);
+            mLockBadge.setTextColor(Color.WHITE);
+            addView(mLockBadge);
+        }
+        mLockBadge.setText(text);
+        mLockBadge.setVisibility(VISIBLE);
+    }
+
+    void hideLockBadge() {
+        if (mLockBadge != null)
+            mLockBadge.setVisibility(GONE);
+    }
+
+    /**
+     * Set the view shown at the end of main line, centered in a slot of at least 48dp wide
+     */
+    void setWidgetView(View view, int width, int height) {
+        if (mWidget != null)
+            removeView(mWidget);
+        mWidget = view;
+        if (view != null)
+            addView(view, new MarginLayoutParams(width, height));
+    }
+
+    /**
+     * Set the view shown below main line, with row width. Its margins are honored
+     */
+    void setBottomView(View view) {
+        if (mBottomView != null)
+            removeView(mBottomView);
+        mBottomView = view;
+        if (view != null)
+            addView(view);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int contentWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+        int wrapSpec = MeasureSpec.makeMeasureSpec(contentWidth, MeasureSpec.AT_MOST);
+
+        int used = 0;
+        int lineHeight = mMinHeight;
+
+        if (isVisible(mIcon)) {
+            mIcon.measure(wrapSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            used += mIconMarginLeft + mIcon.getMeasuredWidth();
+            lineHeight = Math.max(lineHeight, mIcon.getMeasuredHeight());
+        }
+
+        if (isVisible(mLockBadge)) {
+            mLockBadge.measure(wrapSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            used += mLockBadge.getMeasuredWidth();
+            lineHeight = Math.max(lineHeight, mLockBadge.getMeasuredHeight());
+        }
+
+        mWidgetSlotWidth = mWidgetSlotMinWidth;
+        if (isVisible(mWidget)) {
+            measureChild(mWidget, widthMeasureSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            mWidgetSlotWidth = Math.max(mWidgetSlotWidth, mWidget.getMeasuredWidth());
+            lineHeight = Math.max(lineHeight, mWidget.getMeasuredHeight());
+        }
+        used += mWidgetSlotWidth;
+
+        int textWidth = Math.max(0, contentWidth - used - mTextMarginLeft - mTextMarginRight);
+        int textSpec = MeasureSpec.makeMeasureSpec(textWidth, MeasureSpec.AT_MOST);
+        int textHeight = 0;
+        if (isVisible(mTitle)) {
+            mTitle.measure(textSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            textHeight += mTitle.getMeasuredHeight();
+        }
+        if (isVisible(mSummary)) {
+            mSummary.measure(textSpec, MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            textHeight += mSummary.getMeasuredHeight();
+        }
+        mLineHeight = Math.max(lineHeight, textHeight + 2 * mTextMarginVertical);
+
+        int height = mLineHeight;
+        if (isVisible(mBottomView)) {
+            int exactWidthSpec = MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY);
+            measureChildWithMargins(mBottomView, exactWidthSpec, 0,
+                    MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED), 0);
+            MarginLayoutParams params = (MarginLayoutParams) mBottomView.getLayoutParams();
+            height += params.topMargin + mBottomView.getMeasuredHeight() + params.bottomMargin;
+        }
+
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int width = r - l;
+        boolean rtl = Utils.isApi17() && getLayoutDirection() == LAYOUT_DIRECTION_RTL;
+
+        // Positions are computed left to right, then mirrored in RTL
+        int x = getPaddingLeft();
+        if (isVisible(mIcon)) {
+            x += mIconMarginLeft;
+            layoutChild(mIcon, x, (mLineHeight - mIcon.getMeasuredHeight()) / 2, width, rtl);
+            x += mIcon.getMeasuredWidth();
+        }
+
+        x += mTextMarginLeft;
+        int titleHeight = isVisible(mTitle) ? mTitle.getMeasuredHeight() : 0;
+        int summaryHeight = isVisible(mSummary) ? mSummary.getMeasuredHeight() : 0;
+        int y = (mLineHeight - titleHeight - summaryHeight) / 2;
+        if (titleHeight > 0)
+            layoutChild(mTitle, x, y, width, rtl);
+        if (summaryHeight > 0)
+            layoutChild(mSummary, x, y + titleHeight, width, rtl);
+
+        int end = width - getPaddingRight();
+        if (isVisible(mLockBadge)) {
+            end -= mLockBadge.getMeasuredWidth();
+            layoutChild(mLockBadge, end, 0, width, rtl);
+        }
+
+        if (isVisible(mWidget)) {
+            int widgetX = end - mWidgetSlotWidth + (mWidgetSlotWidth - mWidget.getMeasuredWidth()) / 2;
+            layoutChild(mWidget, widgetX, (mLineHeight - mWidget.getMeasuredHeight()) / 2, width, rtl);
+        }
+
+        if (isVisible(mBottomView)) {
+            // Margins are already resolved to left and right, no mirroring
+            MarginLayoutParams params = (MarginLayoutParams) mBottomView.getLayoutParams();
+            int left = rtl ? width - getPaddingRight() - params.rightMargin - mBottomView.getMeasuredWidth()
+                    : getPaddingLeft() + params.leftMargin;
+            layoutChild(mBottomView, left, mLineHeight + params.topMargin, width, false);
+        }
+    }
+
+    private static boolean isVisible(View view) {
+        return view != null && view.getVisibility() != GONE;
+    }
+
+    private static void layoutChild(View child, int left, int top, int width, boolean rtl) {
+        if (rtl)
+            left = width - left - child.getMeasuredWidth();
+        child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams params) {
+        return params instanceof MarginLayoutParams;
+    }
+
+    @Override
+    protected ViewGroup.LayoutParams generateDefaultLayoutParams() {
+        return new MarginLayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public ViewGroup.LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new MarginLayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected ViewGroup.LayoutParams generateLayoutParams(ViewGroup.LayoutParams params) {
+        return new MarginLayoutParams(params);
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false;
+    }
+}
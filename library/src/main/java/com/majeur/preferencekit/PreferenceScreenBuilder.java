@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.preference.PreferenceScreen;
+
+/**
+ * Builds a preference hierarchy with constructors and setters instead of inflating it from xml.
+ * Implementations are generated from preference xml files by preferencekit-codegen.gradle.
+ *
+ * @see PreferenceFragment#addPreferencesFromBuilder(PreferenceScreenBuilder)
+ */
+public interface PreferenceScreenBuilder {
+
+    /**
+     * Creates preferences and adds them to the given screen, which is already attached to its preference manager
+     * @param screen Screen to add preferences to
+     * @param context Context to create preferences with
+     */
+    void build(PreferenceScreen screen, Context context);
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+/**
+ * Storage used by PreferenceKit preferences to read and write their values.
+ * Contract is the same as {@link android.content.SharedPreferences}: getters throw a {@link ClassCastException}
+ * if a value of another type is stored under the given key.
+ * @see PreferenceKit#setPreferenceStore(PreferenceStore)
+ * @see SharedPreferencesStore
+ * @see InMemoryPreferenceStore
+ */
+public interface PreferenceStore {
+
+    boolean contains(String key);
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    String getString(String key, String defValue);
+
+    /**
+     * @return A new editor, changes are only visible once {@link Editor#apply()} has been called
+     */
+    Editor edit();
+
+    interface Editor {
+
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor putString(String key, String value);
+
+        Editor remove(String key);
+
+        /**
+         * Apply all changes of this editor at once
+         */
+        void apply();
+    }
+}
@@ -21,10 +21,15 @@ import android.content.res.TypedArray;
 import android.graphics.drawable.Drawable;
 import android.preference.Preference;
 import android.preference.PreferenceGroup;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.AppCompatRadioButton;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import java.util.Arrays;
@@ -34,7 +39,7 @@ import java.util.Arrays;
  * Persisted value is the index of selected radio button.
  * RadioTitles must be set through xml or code, summaries and icons are optional.
  */
-public class RadioPreferenceGroup extends PreferenceGroup {
+public class RadioPreferenceGroup extends PreferenceGroup implements PersistenceDelegate.Persistable {
 
     private CharSequence[] mRadioTitles;
     private CharSequence[] mRadioSummaries;
@@ -42,30 +47,28 @@ public class RadioPreferenceGroup extends PreferenceGroup {
 
     private int mSelectedIndex;
 
+    private PersistenceDelegate mPersistence;
+
     private OnChildRadioCheckedListener mOnChildRadioCheckedListener = new OnChildRadioCheckedListener() {
         @Override
         public void onChildRadioChecked(InternalRadioPreference preference, boolean checked) {
-            if (!checked) {
-                int newIndex = preference.getOrder();
-                if (callChangeListener(newIndex))
-                    setCheckedRadio(newIndex);
-            }
+            if (!checked)
+                setCheckedRadio(preference.getOrder());
         }
     };
 
     public RadioPreferenceGroup(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
+        mPersistence = new PersistenceDelegate(this);
 
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_radiogroup, defStyleAttr, 0);
-            mRadioTitles = typedArray.getTextArray(R.styleable.preference_radiogroup_radioTitles);
-            mRadioSummaries = typedArray.getTextArray(R.styleable.preference_radiogroup_radioSummaries);
-            int iconArrayResId = typedArray.getResourceId(R.styleable.preference_radiogroup_radioIcons, 0);
-            typedArray.recycle();
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_radiogroup, defStyleAttr, 0);
+        mRadioTitles = typedArray.getTextArray(R.styleable.preference_radiogroup_radioTitles);
+        mRadioSummaries = typedArray.getTextArray(R.styleable.preference_radiogroup_radioSummaries);
+        int iconArrayResId = typedArray.getResourceId(R.styleable.preference_radiogroup_radioIcons, 0);
+        typedArray.recycle();
 
-            if (iconArrayResId != 0) {
-                mRadioIcons = Utils.getDrawableArray(context, iconArrayResId);
-            }
+        if (iconArrayResId != 0) {
+            mRadioIcons = Utils.getDrawableArray(context, iconArrayResId);
         }
     }
 
@@ -110,7 +113,19 @@ public class RadioPreferenceGroup extends PreferenceGroup {
         }
     }
 
+    /**
+     * Sets radioButton icons from an array resource of drawables.
+     * @param radioIconsResId icons array resource id
+     */
+    public void setRadioIcons(int radioIconsResId) {
+        setRadioIcons(Utils.getDrawableArray(getContext(), radioIconsResId));
+    }
+
     private void syncChildren() {
+        // Children can only be added once attached, they are synced again on initial value and on bind
+        if (getPreferenceManager() == null)
+            return;
+
         int currentCount = getPreferenceCount();
         final int desiredCount = mRadioTitles.length;
 
@@ -150,7 +165,13 @@ public class RadioPreferenceGroup extends PreferenceGroup {
     @Override
     protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
         syncChildren();
-        setCheckedRadio(restorePersistedValue ? getPersistedInt(0) : (Integer) defaultValue);
+
+        if (mPersistence.shouldRestore(defaultValue)) {
+            restoreCheckedRadio(mPersistence.getInt(0));
+        } else {
+            restoreCheckedRadio((Integer) defaultValue);
+            mPersistence.writeInt(mSelectedIndex);
+        }
     }
 
     /**
@@ -160,16 +181,20 @@ public class RadioPreferenceGroup extends PreferenceGroup {
     public void setCheckedRadio(int index) {
         checkIndex(index);
 
-        if (mSelectedIndex != index) {
+        if (mSelectedIndex != index && mPersistence.persistInt(index)) {
             mSelectedIndex = index;
-
-            if (isPersistent() && callChangeListener(index))
-                persistInt(index);
-
             notifyChildChanged();
+            mPersistence.notifyValueChanged(index);
         }
     }
 
+    private void restoreCheckedRadio(int index) {
+        checkIndex(index);
+
+        mSelectedIndex = index;
+        notifyChildChanged();
+    }
+
     private void checkIndex(int index) {
         int size = getPreferenceCount();
         if (index < 0 || index >= size)
@@ -228,6 +253,59 @@ public class RadioPreferenceGroup extends PreferenceGroup {
         throw new UnsupportedOperationException("Cannot add child preferences, RadioPreferenceGroup adds child preferences itself");
     }
 
+    @Override
+    public boolean callChangeListenerInternal(Object newValue) {
+        return callChangeListener(newValue);
+    }
+
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        int index = (Integer) value;
+        return index >= 0 && index < getPreferenceCount();
+    }
+
+    /**
+     * Framework only sets initial value when SharedPreferences contain the key or a default value is declared,
+     * a value held by a custom store is restored here otherwise
+     */
+    @Override
+    protected void onAttachedToHierarchy(PreferenceManager preferenceManager) {
+        super.onAttachedToHierarchy(preferenceManager);
+        mPersistence.onAttachedToHierarchy();
+    }
+
+    @Override
+    public void reloadValueInternal() {
+        onSetInitialValue(true, null);
+    }
+
+    /**
+     * Not forwarded while refresh is suppressed by a bulk operation, which refreshes the whole list once done
+     */
+    @Override
+    protected void notifyChanged() {
+        if (!PreferenceKit.isRefreshSuppressed())
+            super.notifyChanged();
+    }
+
+    /**
+     * Observe value changes of this preference, values are delivered on next frame, latest value wins.
+     * Preferences that do not hold a value never notify their observers.
+     * @param observer Observer to add, replaces previous registration of the same observer
+     * @param options Delivery options, or null for default ones
+     */
+    public void addValueObserver(@NonNull ValueObserver observer, @Nullable ValueObserver.Options options) {
+        mPersistence.addValueObserver(observer, options != null ? options : new ValueObserver.Options());
+    }
+
+    public void removeValueObserver(@NonNull ValueObserver observer) {
+        mPersistence.removeValueObserver(observer);
+    }
+
+    PersistenceDelegate getPersistence() {
+        return mPersistence;
+    }
+
     @Override
     protected boolean isOnSameScreenAsChildren() {
         return true;
@@ -257,18 +335,11 @@ public class RadioPreferenceGroup extends PreferenceGroup {
         }
 
         /**
-         * We add a radio to widget container with android internal checkbox id
-         * to allow parent class to modify radio state
+         * Added by parent class with android internal checkbox id, to allow it to modify radio state
          */
         @Override
-        protected View onCreateView(ViewGroup parent) {
-            View view = super.onCreateView(parent);
-
-            ViewGroup stub = (ViewGroup) view.findViewById(R.id.pk_stub);
-            stub.removeAllViews(); // CheckBox has been added in super call
-            LayoutInflater.from(getContext()).inflate(R.layout.widget_radio, stub);
-
-            return view;
+        CompoundButton onCreateCompoundButton(Context context) {
+            return new AppCompatRadioButton(context);
         }
 
         @Override
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+import android.support.v4.content.ContextCompat;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.util.WeakHashMap;
+
+/**
+ * Theme attributes, typefaces and display metrics used when creating and binding preference views, resolved once per
+ * theme and configuration. A theme that is no longer used is dropped with its values, values of a theme are resolved
+ * again when configuration changed. Must be used from UI thread.
+ * <p>
+ * Themes are cached by identity, as they expose no change count: a style applied in place to an already used theme
+ * with {@link Resources.Theme#applyStyle(int, boolean)} is not seen, and values resolved before stay in use. Apply
+ * styles before any preference view is created, as {@link android.app.Activity#setTheme(int)} requires anyway.
+ */
+final class ResolvedStyle {
+
+    private static final WeakHashMap<Resources.Theme, ResolvedStyle> sCache = new WeakHashMap<>();
+
+    private static Typeface sCondensedTypeface;
+
+    private final Configuration mConfiguration;
+
+    final int accentColor;
+    final Typeface condensedTypeface;
+    final int circlePickerWheelColor;
+    final int circlePickerRadius;
+    final int listPreferredItemHeight;
+    final int selectableItemBackgroundRes;
+    final ColorStateList secondaryTextColor;
+    final int preferenceHorizontalPadding;
+    private final float mDensity;
+    private final float mScaledDensity;
+
+    static ResolvedStyle get(Context context) {
+        Resources.Theme theme = context.getTheme();
+        Configuration configuration = context.getResources().getConfiguration();
+
+        ResolvedStyle style = sCache.get(theme);
+        if (style == null || !style.mConfiguration.equals(configuration)) {
+            style = new ResolvedStyle(context, configuration);
+            sCache.put(theme, style);
+        }
+        return style;
+    }
+
+    private ResolvedStyle(Context context, Configuration configuration) {
+        // Resources configuration is updated in place
+        mConfiguration = new Configuration(configuration);
+
+        accentColor = Utils.getAttrColor(context, R.attr.colorAccent);
+
+        if (sCondensedTypeface == null)
+            sCondensedTypeface = Typeface.create("sans-serif-condensed", Typeface.NORMAL);
+        condensedTypeface = sCondensedTypeface;
+
+        Resources resources = context.getResources();
+        circlePickerWheelColor = ContextCompat.getColor(context, R.color.pk_window_light);
+        circlePickerRadius = resources.getDimensionPixelSize(R.dimen.pk_circlepicker_radius);
+
+        preferenceHorizontalPadding = resources.getDimensionPixelSize(R.dimen.pk_preference_horizontal_padding);
+
+        DisplayMetrics metrics = resources.getDisplayMetrics();
+        mDensity = metrics.density;
+        mScaledDensity = metrics.scaledDensity;
+
+        TypedValue typedValue = new TypedValue();
+        context.getTheme().resolveAttribute(android.R.attr.listPreferredItemHeight, typedValue, true);
+        listPreferredItemHeight = (int) typedValue.getDimension(metrics);
+        context.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, typedValue, true);
+        selectableItemBackgroundRes = typedValue.resourceId;
+
+        TypedArray typedArray = context.getTheme().obtainStyledAttributes(new int[]{android.R.attr.textColorSecondary});
+        secondaryTextColor = typedArray.getColorStateList(0);
+        typedArray.recycle();
+    }
+
+    /**
+     * Same as {@link Utils#dpToPx(Context, float)}, without resources access
+     */
+    int dpToPx(float dp) {
+        return (int) (dp * mDensity);
+    }
+
+    /**
+     * Same as {@link Utils#spToPx(Context, float)}, without resources access
+     */
+    int spToPx(float sp) {
+        return (int) (sp * mScaledDensity);
+    }
+}
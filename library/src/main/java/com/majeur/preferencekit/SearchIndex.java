@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import com.majeur.preferencekit.PreferenceHeadersActivity.Header;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix index of settings texts. Every word of an entry is inserted in a trie whose nodes keep the sorted ids of
+ * the entries having a word starting with the node prefix, so that a query is a walk down the trie for each query
+ * word followed by an intersection of sorted arrays, whatever the entry count.
+ * Entries are added from background thread while queries are made on UI thread.
+ */
+class SearchIndex {
+
+    // Longer words are indexed by their first characters only
+    private static final int MAX_WORD_LENGTH = 24;
+
+    static final class Entry {
+
+        final CharSequence title;
+        final CharSequence summary;
+        // Matching header, or header whose fragment contains the matching preference
+        final Header header;
+        // Preference entries only
+        final String key;
+
+        Entry(Header header, CharSequence title, CharSequence summary) {
+            this(header, null, title, summary);
+        }
+
+        Entry(Header header, String key, CharSequence title, CharSequence summary) {
+            this.header = header;
+            this.key = key;
+            this.title = title;
+            this.summary = summary;
+        }
+    }
+
+    private static final class Node {
+        char[] chars = new char[0];
+        Node[] children = new Node[0];
+        int[] ids = new int[1];
+        int idCount;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(chars, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrCreateChild(char c) {
+            int index = Arrays.binarySearch(chars, c);
+            if (index >= 0)
+                return children[index];
+
+            index = -index - 1;
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(chars, index, newChars, index + 1, chars.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+            Node node = new Node();
+            newChars[index] = c;
+            newChildren[index] = node;
+            chars = newChars;
+            children = newChildren;
+            return node;
+        }
+
+        /**
+         * Ids are added in increasing order, an entry having several words with this prefix is added once
+         */
+        void addId(int id) {
+            if (idCount > 0 && ids[idCount - 1] == id)
+                return;
+            if (idCount == ids.length)
+                ids = Arrays.copyOf(ids, idCount * 2);
+            ids[idCount++] = id;
+        }
+    }
+
+    private static final Comparator<int[]> LENGTH_COMPARATOR = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] lhs, int[] rhs) {
+            return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+        }
+    };
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final Node mRoot = new Node();
+
+    /**
+     * @param entry Entry to return when one of its texts matches
+     * @param texts Searchable texts of this entry, may contain null elements
+     */
+    void add(Entry entry, CharSequence... texts) {
+        addWords(entry, tokenizeAll(texts));
+    }
+
+    /**
+     * @param entry Entry to return when one of its words matches
+     * @param words Words as returned by {@link #tokenizeAll(CharSequence...)}
+     */
+    synchronized void addWords(Entry entry, String[] words) {
+        int id = mEntries.size();
+        mEntries.add(entry);
+
+        for (String word : words) {
+            Node node = mRoot;
+            int length = Math.min(word.length(), MAX_WORD_LENGTH);
+            for (int i = 0; i < length; i++) {
+                node = node.getOrCreateChild(word.charAt(i));
+                node.addId(id);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @param query Words entries must all contain, as words or word prefixes
+     * @param limit Maximum entry count
+     * @return Matching entries, in the order they were added
+     */
+    synchronized List<Entry> query(String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty())
+            return Collections.emptyList();
+
+        // Pairs of (id count, word index), to intersect the smallest id arrays first
+        int[][] sizes = new int[words.size()][];
+        Node[] nodes = new Node[words.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            String word = words.get(i);
+            Node node = mRoot;
+            int length = Math.min(word.length(), MAX_WORD_LENGTH);
+            for (int j = 0; j < length && node != null; j++)
+                node = node.child(word.charAt(j));
+
+            if (node == null)
+                return Collections.emptyList();
+            nodes[i] = node;
+            sizes[i] = new int[]{node.idCount, i};
+        }
+        Arrays.sort(sizes, LENGTH_COMPARATOR);
+
+        Node smallest = nodes[sizes[0][1]];
+        int[] positions = new int[nodes.length];
+        List<Entry> entries = new ArrayList<>();
+
+        candidates:
+        for (int i = 0; i < smallest.idCount && entries.size() < limit; i++) {
+            int id = smallest.ids[i];
+
+            for (int j = 1; j < sizes.length; j++) {
+                Node node = nodes[sizes[j][1]];
+                // Candidates are increasing, each array is walked once at most
+                int position = positions[j];
+                while (position < node.idCount && node.ids[position] < id)
+                    position++;
+                positions[j] = position;
+
+                if (position == node.idCount)
+                    break candidates;
+                if (node.ids[position] != id)
+                    continue candidates;
+            }
+            entries.add(mEntries.get(id));
+        }
+        return entries;
+    }
+
+    /**
+     * Words of all texts, see {@link #tokenize(CharSequence)}
+     * @param texts Texts, may contain null elements
+     */
+    static String[] tokenizeAll(CharSequence... texts) {
+        List<String> words = new ArrayList<>();
+        for (CharSequence text : texts) {
+            if (text != null)
+                words.addAll(tokenize(text));
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * Lower case words without accents, split on any character that is not a letter nor a digit
+     */
+    static List<String> tokenize(CharSequence text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= normalized.length(); i++) {
+            char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+}
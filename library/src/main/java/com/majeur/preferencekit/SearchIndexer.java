@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.majeur.preferencekit.PreferenceHeadersActivity.Header;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads searchable texts of preferences xml files, without inflating them, and adds them to a {@link SearchIndex}.
+ * Texts of each xml are cached already split into index words, in a file keyed like headers cache, so that later
+ * launches only read this file and fill the trie. The trie itself is not cached, its entries reference headers
+ * of the running activity. Xml files are indexed one at a time on library background thread.
+ */
+class SearchIndexer {
+
+    private static final String TAG = SearchIndexer.class.getSimpleName();
+
+    private static final int MAGIC = 0x504b5349; // PKSI
+    private static final int VERSION = 2;
+
+    private static final String CACHE_DIR = "pk_search";
+
+    interface Callback {
+
+        /**
+         * Called on UI thread once entries of this xml are in the index
+         * @param xmlResId Indexed preferences xml
+         * @param fromCache true if texts were read from cache, false if xml was parsed
+         * @param indexTimeNanos Time spent indexing this xml in background
+         */
+        void onXmlIndexed(int xmlResId, boolean fromCache, long indexTimeNanos);
+    }
+
+    /**
+     * Shown texts and index words of a preference, as cached
+     */
+    private static class Record {
+        String key;
+        String title;
+        String summary;
+        // Words of title, summary and entries
+        String[] words;
+    }
+
+    private static Handler sHandler;
+
+    private SearchIndexer() {
+    }
+
+    /**
+     * Add preferences of the xml of this header to the index, results of these preferences open this header
+     */
+    static void indexAsync(final Context context, final Header header, final SearchIndex index,
+                           final Callback callback) {
+        final int xmlResId = header.preferencesRes;
+        if (sHandler == null)
+            sHandler = new Handler(Looper.getMainLooper());
+
+        PreferenceKit.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final boolean fromCache;
+
+                File cacheFile = HeadersLoader.getCacheFile(context, CACHE_DIR, xmlResId);
+                List<Record> records = readCache(cacheFile);
+                if (records != null) {
+                    fromCache = true;
+                } else {
+                    try {
+                        records = parse(context.getResources(), xmlResId);
+                    } catch (RuntimeException e) {
+                        // Inflating this xml will report the error, search just misses its preferences
+                        Log.w(TAG, "Cannot index preferences xml " + xmlResId, e);
+                        return;
+                    }
+                    fromCache = false;
+                    writeCache(cacheFile, records);
+                }
+
+                for (Record record : records)
+                    index.addWords(new SearchIndex.Entry(header, record.key, record.title, record.summary),
+                            record.words);
+
+                final long indexTimeNanos = System.nanoTime() - start;
+                sHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onXmlIndexed(xmlResId, fromCache, indexTimeNanos);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Every element having a title, apart from the root screen, is recorded with its key, title, summary and
+     * entries. Attributes are identified by their resource id, so library attributes match whatever their namespace.
+     */
+    private static List<Record> parse(Resources resources, int xmlResId) {
+        List<Record> records = new ArrayList<>();
+        XmlResourceParser parser = null;
+
+        try {
+            parser = resources.getXml(xmlResId);
+
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG || parser.getDepth() == 1)
+                    continue;
+
+                Record record = new Record();
+                List<CharSequence> texts = new ArrayList<>();
+
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    int attr = parser.getAttributeNameResource(i);
+
+                    if (attr == android.R.attr.key)
+                        record.key = getString(resources, parser, i);
+                    else if (attr == android.R.attr.title)
+                        record.title = getString(resources, parser, i);
+                    else if (attr == android.R.attr.summary)
+                        record.summary = getString(resources, parser, i);
+                    else if (attr == R.attr.entries || attr == android.R.attr.entries || attr == R.attr.radioTitles
+                            || attr == R.attr.radioSummaries)
+                        addTextArray(resources, parser, i, texts);
+                }
+
+                if (record.title != null) {
+                    texts.add(record.title);
+                    texts.add(record.summary);
+                    record.words = SearchIndex.tokenizeAll(texts.toArray(new CharSequence[texts.size()]));
+                    records.add(record);
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException("Error parsing preferences", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Error parsing preferences", e);
+        } finally {
+            if (parser != null)
+                parser.close();
+        }
+
+        return records;
+    }
+
+    private static String getString(Resources resources, XmlResourceParser parser, int index) {
+        int resId = parser.getAttributeResourceValue(index, 0);
+        if (resId != 0)
+            return resources.getString(resId);
+        return parser.getAttributeValue(index);
+    }
+
+    private static void addTextArray(Resources resources, XmlResourceParser parser, int index,
+                                     List<CharSequence> list) {
+        int resId = parser.getAttributeResourceValue(index, 0);
+        if (resId != 0)
+            Collections.addAll(list, resources.getTextArray(resId));
+    }
+
+    private static List<Record> readCache(File file) {
+        if (!file.exists())
+            return null;
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MAGIC || input.readByte() != VERSION)
+                    return null;
+
+                int count = input.readInt();
+                List<Record> records = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    Record record = new Record();
+                    record.key = HeadersLoader.readNullableString(input);
+                    record.title = HeadersLoader.readNullableString(input);
+                    record.summary = HeadersLoader.readNullableString(input);
+
+                    record.words = new String[input.readInt()];
+                    for (int j = 0; j < record.words.length; j++)
+                        record.words[j] = input.readUTF();
+                    records.add(record);
+                }
+                return records;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring invalid search cache " + file, e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring invalid search cache " + file, e);
+        }
+
+        // Rewritten once xml is parsed
+        file.delete();
+        return null;
+    }
+
+    private static void writeCache(File file, List<Record> records) {
+        if (!HeadersLoader.deleteStaleCacheFiles(file))
+            return;
+
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                output.writeInt(MAGIC);
+                output.writeByte(VERSION);
+                output.writeInt(records.size());
+
+                for (Record record : records) {
+                    HeadersLoader.writeNullableString(output, record.key);
+                    HeadersLoader.writeNullableString(output, record.title);
+                    HeadersLoader.writeNullableString(output, record.summary);
+
+                    output.writeInt(record.words.length);
+                    for (String word : record.words)
+                        output.writeUTF(word);
+                }
+            } finally {
+                output.close();
+            }
+
+            if (!tmpFile.renameTo(file))
+                tmpFile.delete();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write search cache " + file, e);
+            tmpFile.delete();
+        }
+    }
+}
@@ -21,6 +21,10 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.PorterDuff;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,10 +34,45 @@ import android.widget.TextView;
 
 /**
  * Preference that allows user to input an value through a {@link SeekBar}.
+ * By default each progress change is persisted, see {@link #setPersistMode(int)} and
+ * {@link #setNotifyMode(int)} to coalesce writes and change listener calls while user drags the knob.
  */
-public class SeekBarPreference extends BottomWidgetPreference implements SeekBar.OnSeekBarChangeListener {
+public class SeekBarPreference extends BottomWidgetPreference implements SeekBar.OnSeekBarChangeListener,
+        PreferenceManager.OnActivityDestroyListener {
+
+    /**
+     * Value is persisted on each progress change
+     */
+    public static final int PERSIST_IMMEDIATE = 0;
+
+    /**
+     * Value is kept in memory while user drags the knob, and persisted once when the knob is released
+     */
+    public static final int PERSIST_ON_RELEASE = 1;
+
+    /**
+     * Value is persisted once progress stopped changing for the persist delay, or when the knob is released
+     */
+    public static final int PERSIST_ON_IDLE = 2;
+
+    /**
+     * Change listener is called on each progress change
+     */
+    public static final int NOTIFY_EVERY_CHANGE = 0;
+
+    /**
+     * Change listener is called at most once per notify interval, latest value is always delivered
+     */
+    public static final int NOTIFY_THROTTLED = 1;
+
+    /**
+     * Change listener is only called when the value is persisted
+     */
+    public static final int NOTIFY_ON_RELEASE = 2;
 
     private static final int DEFAULT_VALUE = 0;
+    private static final int DEFAULT_PERSIST_DELAY = 500;
+    private static final int DEFAULT_NOTIFY_INTERVAL = 100;
 
     private SeekBar mSeekBar;
     private TextView mValueIndicator;
@@ -44,6 +83,19 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
     private int mMaxValue;
     private boolean mShowValue;
 
+    private int mPersistMode = PERSIST_IMMEDIATE;
+    private int mPersistDelay = DEFAULT_PERSIST_DELAY;
+    private int mNotifyMode = NOTIFY_EVERY_CHANGE;
+    private int mNotifyInterval = DEFAULT_NOTIFY_INTERVAL;
+
+    private Handler mHandler;
+    private boolean mTracking;
+    private boolean mCommitPending;
+    private boolean mHasNotifiedValue;
+    private int mNotifiedValue;
+    private boolean mNotifiedValueAccepted;
+    private long mLastNotifyTime;
+
     public SeekBarPreference(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         init(context, attrs);
@@ -60,14 +112,16 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
     }
 
     private void init(Context context, AttributeSet attrs) {
-        if (attrs != null) {
-            TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_seekbar, 0, 0);
-            mMaxValue = typedArray.getInteger(R.styleable.preference_seekbar_maxValue, 100);
-            mShowValue = typedArray.getBoolean(R.styleable.preference_seekbar_showValue, true);
-            mKnobCustomColor = typedArray.hasValue(R.styleable.preference_seekbar_knobColor);
-            mKnobColor = typedArray.getColor(R.styleable.preference_seekbar_knobColor, 0);
-            typedArray.recycle();
-        }
+        TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.preference_seekbar, 0, 0);
+        mMaxValue = typedArray.getInteger(R.styleable.preference_seekbar_maxValue, 100);
+        mShowValue = typedArray.getBoolean(R.styleable.preference_seekbar_showValue, true);
+        mKnobCustomColor = typedArray.hasValue(R.styleable.preference_seekbar_knobColor);
+        mKnobColor = typedArray.getColor(R.styleable.preference_seekbar_knobColor, 0);
+        mPersistMode = typedArray.getInt(R.styleable.preference_seekbar_persistMode, PERSIST_IMMEDIATE);
+        mPersistDelay = typedArray.getInteger(R.styleable.preference_seekbar_persistDelay, DEFAULT_PERSIST_DELAY);
+        mNotifyMode = typedArray.getInt(R.styleable.preference_seekbar_notifyMode, NOTIFY_EVERY_CHANGE);
+        mNotifyInterval = typedArray.getInteger(R.styleable.preference_seekbar_notifyInterval, DEFAULT_NOTIFY_INTERVAL);
+        typedArray.recycle();
     }
 
     @Override
@@ -77,14 +131,31 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
 
     @Override
     protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
-        int value = restorePersistedValue ? getPersistedInt(DEFAULT_VALUE) : (Integer) defaultValue;
-        setNewValue(value);
+        if (getPersistence().shouldRestore(defaultValue)) {
+            updateValue(getPersistence().getInt(DEFAULT_VALUE));
+        } else {
+            updateValue((Integer) defaultValue);
+            getPersistence().writeInt(mValue);
+        }
+    }
+
+    @Override
+    public boolean isValidValueInternal(Object value) {
+        int intValue = (Integer) value;
+        return intValue >= 0 && intValue <= mMaxValue;
     }
 
     private void setNewValue(int newValue) {
-        if (isPersistent() && callChangeListener(newValue))
-            persistInt(newValue);
+        cancelPendingCommit();
+        mHasNotifiedValue = false;
+
+        getPersistence().persistInt(newValue);
 
+        updateValue(newValue);
+        getPersistence().notifyValueChanged(newValue);
+    }
+
+    private void updateValue(int newValue) {
         mValue = newValue;
 
         if (mValueIndicator != null && mShowValue)
@@ -94,6 +165,97 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
             mSeekBar.setProgress(mValue);
     }
 
+    /**
+     * Persist current value if it has not been yet. The change listener is only called again
+     * if the current value is not the last one it has been notified of.
+     */
+    private void commitValue() {
+        cancelPendingCommit();
+
+        if (!mHasNotifiedValue || mNotifiedValue != mValue)
+            getPersistence().persistInt(mValue);
+        else if (mNotifiedValueAccepted)
+            getPersistence().writeInt(mValue);
+
+        mHasNotifiedValue = false;
+    }
+
+    private boolean notifyValue(int value) {
+        getHandler().removeCallbacks(mThrottledNotifyRunnable);
+
+        mHasNotifiedValue = true;
+        mNotifiedValue = value;
+        mNotifiedValueAccepted = callChangeListener(value);
+        mLastNotifyTime = SystemClock.uptimeMillis();
+        return mNotifiedValueAccepted;
+    }
+
+    private void onLiveValueChanged(int value) {
+        updateValue(value);
+        getPersistence().notifyValueChanged(value);
+
+        if (mNotifyMode == NOTIFY_EVERY_CHANGE) {
+            notifyValue(value);
+        } else if (mNotifyMode == NOTIFY_THROTTLED) {
+            long delay = mLastNotifyTime + mNotifyInterval - SystemClock.uptimeMillis();
+            if (delay <= 0) {
+                notifyValue(value);
+            } else {
+                getHandler().removeCallbacks(mThrottledNotifyRunnable);
+                getHandler().postDelayed(mThrottledNotifyRunnable, delay);
+            }
+        }
+
+        if (!mTracking && mPersistMode == PERSIST_ON_RELEASE) {
+            // Progress changed without touch (key events), there will be no release
+            commitValue();
+            return;
+        }
+
+        if (!mCommitPending) {
+            mCommitPending = true;
+            Utils.registerOnActivityDestroyListener(this, this);
+        }
+
+        if (mPersistMode == PERSIST_ON_IDLE) {
+            getHandler().removeCallbacks(mCommitRunnable);
+            getHandler().postDelayed(mCommitRunnable, mPersistDelay);
+        }
+    }
+
+    private void cancelPendingCommit() {
+        if (mCommitPending) {
+            mCommitPending = false;
+            Utils.unregisterOnActivityDestroyListener(this, this);
+        }
+
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mCommitRunnable);
+            mHandler.removeCallbacks(mThrottledNotifyRunnable);
+        }
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null)
+            mHandler = new Handler(Looper.getMainLooper());
+        return mHandler;
+    }
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitValue();
+        }
+    };
+
+    private final Runnable mThrottledNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mHasNotifiedValue || mNotifiedValue != mValue)
+                notifyValue(mValue);
+        }
+    };
+
     @Override
     protected View onCreateBottomWidgetView(ViewGroup parent) {
         View view = LayoutInflater.from(getContext()).inflate(R.layout.bottom_widget_seekbar, parent, false);
@@ -123,9 +285,18 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
         }
     }
 
+    /**
+     * Progress set while binding or updating the row is ignored, as is progress equal to current value
+     */
     @Override
-    public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
-        setNewValue(i);
+    public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+        if (!fromUser || progress == mValue)
+            return;
+
+        if (mPersistMode == PERSIST_IMMEDIATE)
+            setNewValue(progress);
+        else
+            onLiveValueChanged(progress);
     }
 
     /**
@@ -146,6 +317,41 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
         mShowValue = showValue;
     }
 
+    /**
+     * Set when the value is persisted while user drags the knob. Notify mode is ignored
+     * in {@link #PERSIST_IMMEDIATE} mode as each persisted value has to go through the change listener first.
+     * @param persistMode One of {@link #PERSIST_IMMEDIATE}, {@link #PERSIST_ON_RELEASE} or {@link #PERSIST_ON_IDLE}
+     */
+    public void setPersistMode(int persistMode) {
+        if (mCommitPending)
+            commitValue();
+        mPersistMode = persistMode;
+    }
+
+    /**
+     * Set the delay without progress change after which value is persisted in {@link #PERSIST_ON_IDLE} mode
+     * @param persistDelay Delay in milliseconds
+     */
+    public void setPersistDelay(int persistDelay) {
+        mPersistDelay = persistDelay;
+    }
+
+    /**
+     * Set when the change listener is called while user drags the knob
+     * @param notifyMode One of {@link #NOTIFY_EVERY_CHANGE}, {@link #NOTIFY_THROTTLED} or {@link #NOTIFY_ON_RELEASE}
+     */
+    public void setNotifyMode(int notifyMode) {
+        mNotifyMode = notifyMode;
+    }
+
+    /**
+     * Set the minimum interval between two change listener calls in {@link #NOTIFY_THROTTLED} mode
+     * @param notifyInterval Interval in milliseconds
+     */
+    public void setNotifyInterval(int notifyInterval) {
+        mNotifyInterval = notifyInterval;
+    }
+
     /**
      * Set progress bar color (API16+ only)
      * @param color Progress bar color
@@ -158,9 +364,20 @@ public class SeekBarPreference extends BottomWidgetPreference implements SeekBar
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
+        mTracking = true;
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
+        mTracking = false;
+
+        if (mCommitPending)
+            commitValue();
+    }
+
+    @Override
+    public void onActivityDestroy() {
+        if (mCommitPending)
+            commitValue();
     }
 }
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link PreferenceStore} backed by {@link SharedPreferences}. This is the store used when no other
+ * has been set, each preference then uses the SharedPreferences of its {@link android.preference.PreferenceManager}.
+ */
+public class SharedPreferencesStore implements PreferenceStore {
+
+    private final SharedPreferences mSharedPreferences;
+
+    public SharedPreferencesStore(@NonNull SharedPreferences sharedPreferences) {
+        mSharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * @return The wrapped SharedPreferences
+     */
+    public SharedPreferences getSharedPreferences() {
+        return mSharedPreferences;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mSharedPreferences.contains(key);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mSharedPreferences.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mSharedPreferences.getLong(key, defValue);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return mSharedPreferences.getString(key, defValue);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl(mSharedPreferences.edit());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SharedPreferencesStore
+                && ((SharedPreferencesStore) o).mSharedPreferences == mSharedPreferences;
+    }
+
+    @Override
+    public int hashCode() {
+        return mSharedPreferences.hashCode();
+    }
+
+    private static class EditorImpl implements Editor {
+
+        private final SharedPreferences.Editor mEditor;
+
+        EditorImpl(SharedPreferences.Editor editor) {
+            mEditor = editor;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mEditor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mEditor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            mEditor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mEditor.remove(key);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            mEditor.apply();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.preference.Preference;
+
+/**
+ * Observer of a preference value. Unlike {@link Preference.OnPreferenceChangeListener}, observers are never
+ * called synchronously: values are coalesced and only the latest one is delivered on next frame,
+ * with optional throttling, debouncing and filtering of identical values, see {@link Options}.
+ */
+public interface ValueObserver {
+
+    /**
+     * Called on UI thread with the latest value of the preference
+     * @param preference Observed preference
+     * @param newValue Latest value, same type as the one given to change listener
+     */
+    void onValueChanged(Preference preference, Object newValue);
+
+    /**
+     * Delivery options of a {@link ValueObserver}
+     */
+    final class Options {
+
+        long throttle;
+        long debounce;
+        boolean distinctUntilChanged;
+
+        /**
+         * Deliver values at most once per interval, latest value is delivered at the end of the interval.
+         * Cannot be combined with {@link #setDebounce(long)}
+         * @param throttle Interval in milliseconds
+         * @throws IllegalStateException If a debounce delay is set
+         */
+        public Options setThrottle(long throttle) {
+            if (throttle > 0 && debounce > 0)
+                throw new IllegalStateException("Throttle cannot be combined with debounce");
+            this.throttle = throttle;
+            return this;
+        }
+
+        /**
+         * Deliver a value only once no other value has been set during the delay.
+         * Cannot be combined with {@link #setThrottle(long)}
+         * @param debounce Delay in milliseconds
+         * @throws IllegalStateException If a throttle interval is set
+         */
+        public Options setDebounce(long debounce) {
+            if (debounce > 0 && throttle > 0)
+                throw new IllegalStateException("Debounce cannot be combined with throttle");
+            this.debounce = debounce;
+            return this;
+        }
+
+        /**
+         * Do not deliver a value equal to the last delivered one
+         */
+        public Options setDistinctUntilChanged(boolean distinctUntilChanged) {
+            this.distinctUntilChanged = distinctUntilChanged;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.Preference;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the {@link ValueObserver}s of a preference and schedules value deliveries.
+ * Must only be used from UI thread.
+ */
+class ValueObserverRegistry {
+
+    private static Handler sHandler;
+
+    private final Preference mPreference;
+    private final List<Registration> mRegistrations = new ArrayList<>();
+
+    ValueObserverRegistry(Preference preference) {
+        mPreference = preference;
+    }
+
+    void add(ValueObserver observer, ValueObserver.Options options) {
+        remove(observer);
+        mRegistrations.add(new Registration(observer, options));
+    }
+
+    void remove(ValueObserver observer) {
+        for (int i = mRegistrations.size() - 1; i >= 0; i--) {
+            Registration registration = mRegistrations.get(i);
+            if (registration.observer == observer) {
+                registration.cancel();
+                mRegistrations.remove(i);
+            }
+        }
+    }
+
+    void dispatch(Object value) {
+        for (int i = 0; i < mRegistrations.size(); i++)
+            mRegistrations.get(i).offer(value);
+    }
+
+    private static Handler getHandler() {
+        if (sHandler == null)
+            sHandler = new Handler(Looper.getMainLooper());
+        return sHandler;
+    }
+
+    private final class Registration implements Runnable {
+
+        final ValueObserver observer;
+        final long throttle;
+        final long debounce;
+        final boolean distinctUntilChanged;
+
+        private Object mPendingValue;
+        private boolean mHasPendingValue;
+        private boolean mScheduled;
+
+        private Object mLastValue;
+        private boolean mHasLastValue;
+        private long mLastDeliveryTime;
+        private long mLastOfferTime;
+
+        private Object mFrameCallback;
+
+        Registration(ValueObserver observer, ValueObserver.Options options) {
+            this.observer = observer;
+            this.throttle = options.throttle;
+            this.debounce = options.debounce;
+            this.distinctUntilChanged = options.distinctUntilChanged;
+        }
+
+        void offer(Object value) {
+            mPendingValue = value;
+            mHasPendingValue = true;
+            mLastOfferTime = SystemClock.uptimeMillis();
+
+            if (debounce > 0) {
+                getHandler().removeCallbacks(this);
+                getHandler().postDelayed(this, debounce);
+                mScheduled = true;
+            } else if (!mScheduled) {
+                long delay = mLastDeliveryTime + throttle - SystemClock.uptimeMillis();
+                getHandler().postDelayed(this, Math.max(0, delay));
+                mScheduled = true;
+            }
+        }
+
+        void cancel() {
+            getHandler().removeCallbacks(this);
+            if (mFrameCallback != null)
+                removeFrameCallback();
+            mScheduled = false;
+            mHasPendingValue = false;
+        }
+
+        /**
+         * Delay elapsed, deliver on next frame
+         */
+        @Override
+        public void run() {
+            if (Utils.isApi16())
+                postFrameCallback();
+            else
+                deliver();
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private void postFrameCallback() {
+            if (mFrameCallback == null) {
+                mFrameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        deliver();
+                    }
+                };
+            }
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private void removeFrameCallback() {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        }
+
+        private void deliver() {
+            if (debounce > 0) {
+                long remaining = mLastOfferTime + debounce - SystemClock.uptimeMillis();
+                if (remaining > 0) {
+                    // Offered again while waiting for the frame, delay starts over from that value
+                    getHandler().removeCallbacks(this);
+                    getHandler().postDelayed(this, remaining);
+                    return;
+                }
+            }
+
+            mScheduled = false;
+
+            if (!mHasPendingValue)
+                return;
+
+            Object value = mPendingValue;
+            mPendingValue = null;
+            mHasPendingValue = false;
+
+            if (distinctUntilChanged && mHasLastValue
+                    && (mLastValue == null ? value == null : mLastValue.equals(value)))
+                return;
+
+            mLastValue = value;
+            mHasLastValue = true;
+            mLastDeliveryTime = SystemClock.uptimeMillis();
+            observer.onValueChanged(mPreference, value);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.preference.Preference;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceScreen;
+import android.widget.BaseAdapter;
+import android.widget.ListAdapter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary export and import of PreferenceKit preferences values.
+ * <p>
+ * Layout: magic (4 bytes), version (1 byte), then one record per value: type (1 byte), key and value, 4 bytes for
+ * ints, 8 bytes for longs. Keys and string values are written as their UTF-8 length (4 bytes) then bytes, version 1
+ * used modified UTF-8, limited to 64 KB, and is still read. A {@link PersistenceDelegate#TYPE_NONE} type ends the records.
+ * <p>
+ * Imported values are checked against their preference before anything is written, a value it cannot restore
+ * (a radio index out of range, a string that is not one of entryValues ...) is skipped.
+ */
+final class ValuesSnapshot {
+
+    private static final int MAGIC = 0x504b5653; // PKVS
+    private static final int VERSION = 2;
+    private static final int VERSION_MODIFIED_UTF8 = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ValuesSnapshot() {
+    }
+
+    static int write(PreferenceGroup root, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+
+        int count = writeGroup(root, output);
+
+        output.writeByte(PersistenceDelegate.TYPE_NONE);
+        output.flush();
+        return count;
+    }
+
+    private static int writeGroup(PreferenceGroup group, DataOutputStream output) throws IOException {
+        int count = 0;
+
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            Preference preference = group.getPreference(i);
+            PersistenceDelegate persistence = PersistenceDelegate.of(preference);
+
+            if (persistence != null && persistence.isStored()) {
+                writeValue(persistence, output);
+                count++;
+            } else if (preference instanceof PreferenceGroup) {
+                count += writeGroup((PreferenceGroup) preference, output);
+            }
+        }
+        return count;
+    }
+
+    private static void writeValue(PersistenceDelegate persistence, DataOutputStream output) throws IOException {
+        PreferenceStore store = persistence.getStore();
+        String key = persistence.getKey();
+        byte type = persistence.getValueType();
+
+        output.writeByte(type);
+        writeString(key, output);
+
+        switch (type) {
+            case PersistenceDelegate.TYPE_INT:
+                output.writeInt(store.getInt(key, 0));
+                break;
+            case PersistenceDelegate.TYPE_LONG:
+                output.writeLong(store.getLong(key, 0));
+                break;
+            case PersistenceDelegate.TYPE_STRING:
+                writeString(store.getString(key, ""), output);
+                break;
+        }
+    }
+
+    static int read(PreferenceGroup root, InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        if (input.readInt() != MAGIC)
+            throw new IOException("Not a PreferenceKit values export");
+        int version = input.readUnsignedByte();
+        if (version != VERSION && version != VERSION_MODIFIED_UTF8)
+            throw new IOException("Unsupported values export version " + version);
+
+        Map<String, PersistenceDelegate> preferences = new HashMap<>();
+        indexGroup(root, preferences);
+
+        // One editor per store, only applied once the whole stream has been read
+        Map<PreferenceStore, PreferenceStore.Editor> editors = new HashMap<>();
+        int count = 0;
+
+        byte type;
+        while ((type = input.readByte()) != PersistenceDelegate.TYPE_NONE) {
+            String key = readString(version, input);
+            Object value = readValue(type, version, input);
+
+            PersistenceDelegate persistence = preferences.get(key);
+            if (persistence == null || persistence.getValueType() != type || !persistence.isValidValue(value))
+                continue;
+
+            PreferenceStore store = persistence.getStore();
+            PreferenceStore.Editor editor = editors.get(store);
+            if (editor == null) {
+                editor = store.edit();
+                editors.put(store, editor);
+            }
+
+            if (type == PersistenceDelegate.TYPE_INT)
+                editor.putInt(key, (Integer) value);
+            else if (type == PersistenceDelegate.TYPE_LONG)
+                editor.putLong(key, (Long) value);
+            else
+                editor.putString(key, (String) value);
+            count++;
+        }
+
+        for (PreferenceStore.Editor editor : editors.values())
+            editor.apply();
+
+        PreferenceKit.suppressRefresh();
+        try {
+            for (PersistenceDelegate persistence : preferences.values()) {
+                if (persistence.isStored())
+                    persistence.reloadValue();
+            }
+        } finally {
+            PreferenceKit.resumeRefresh();
+        }
+
+        if (root instanceof PreferenceScreen) {
+            ListAdapter adapter = ((PreferenceScreen) root).getRootAdapter();
+            if (adapter instanceof BaseAdapter)
+                ((BaseAdapter) adapter).notifyDataSetChanged();
+        }
+        return count;
+    }
+
+    private static Object readValue(byte type, int version, DataInputStream input) throws IOException {
+        switch (type) {
+            case PersistenceDelegate.TYPE_INT:
+                return input.readInt();
+            case PersistenceDelegate.TYPE_LONG:
+                return input.readLong();
+            case PersistenceDelegate.TYPE_STRING:
+                return readString(version, input);
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(String value, DataOutputStream output) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(int version, DataInputStream input) throws IOException {
+        if (version == VERSION_MODIFIED_UTF8)
+            return input.readUTF();
+
+        int length = input.readInt();
+        if (length < 0)
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void indexGroup(PreferenceGroup group, Map<String, PersistenceDelegate> preferences) {
+        for (int i = 0; i < group.getPreferenceCount(); i++) {
+            Preference preference = group.getPreference(i);
+            PersistenceDelegate persistence = PersistenceDelegate.of(preference);
+
+            if (persistence != null && preference.hasKey())
+                preferences.put(preference.getKey(), persistence);
+            else if (preference instanceof PreferenceGroup)
+                indexGroup((PreferenceGroup) preference, preferences);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+    private CountingPreferenceStore mStore;
+    private PreferenceKit.Batch mBatch;
+
+    @Before
+    public void setUp() {
+        mStore = new CountingPreferenceStore();
+        mStore.edit().putInt("int", 1).putString("string", "a").apply();
+        mStore.reset();
+        mBatch = new PreferenceKit.Batch();
+    }
+
+    @Test
+    public void valuesAreAppliedOnce() {
+        mBatch.putInt(mStore, "int", 2);
+        mBatch.putLong(mStore, "long", 3L);
+        mBatch.putString(mStore, "string", "b");
+        assertEquals(0, mStore.applyCount);
+
+        mBatch.apply();
+        assertEquals(1, mStore.applyCount);
+        assertEquals(3, mStore.putCount);
+        assertEquals(2, mStore.getInt("int", 0));
+        assertEquals(3L, mStore.getLong("long", 0));
+        assertEquals("b", mStore.getString("string", null));
+    }
+
+    @Test
+    public void lastValueIsPending() {
+        mBatch.putInt(mStore, "int", 2);
+        mBatch.putInt(mStore, "int", 3);
+
+        assertTrue(mBatch.hasPendingValue(mStore, "int"));
+        assertEquals(3, mBatch.getPendingValue(mStore, "int"));
+        assertFalse(mBatch.hasPendingValue(mStore, "string"));
+    }
+
+    @Test
+    public void valueSetBackIsNotWritten() {
+        mBatch.putInt(mStore, "int", 2);
+        mBatch.putInt(mStore, "int", 1);
+        mBatch.putString(mStore, "string", "b");
+        mBatch.putString(mStore, "string", "a");
+
+        mBatch.apply();
+        assertEquals(0, mStore.applyCount);
+        assertEquals(0, mStore.putCount);
+    }
+
+    @Test
+    public void onlyChangedValuesAreWritten() {
+        mBatch.putInt(mStore, "int", 1);
+        mBatch.putString(mStore, "string", "b");
+
+        mBatch.apply();
+        assertEquals(1, mStore.applyCount);
+        assertEquals(1, mStore.putCount);
+        assertEquals("b", mStore.getString("string", null));
+    }
+
+    @Test
+    public void otherTypeIsOverwritten() {
+        mBatch.putString(mStore, "int", "1");
+
+        mBatch.apply();
+        assertEquals(1, mStore.putCount);
+        assertEquals("1", mStore.getString("int", null));
+    }
+
+    @Test
+    public void rolledBackValuesAreNotWritten() {
+        mBatch.putInt(mStore, "int", 2);
+        mBatch.putString(mStore, "string", "b");
+
+        mBatch.rollBack();
+        mBatch.apply();
+        assertEquals(0, mStore.applyCount);
+        assertEquals(1, mStore.getInt("int", 0));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+/**
+ * In-memory store counting editor puts and applies
+ */
+class CountingPreferenceStore extends InMemoryPreferenceStore {
+
+    int applyCount;
+    int putCount;
+
+    void reset() {
+        applyCount = 0;
+        putCount = 0;
+    }
+
+    @Override
+    public Editor edit() {
+        final Editor editor = super.edit();
+        return new Editor() {
+            @Override
+            public Editor putInt(String key, int value) {
+                putCount++;
+                editor.putInt(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                putCount++;
+                editor.putLong(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                putCount++;
+                editor.putString(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                editor.remove(key);
+                return this;
+            }
+
+            @Override
+            public void apply() {
+                applyCount++;
+                editor.apply();
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class JournalPreferenceStoreTest {
+
+    // Never reached, compaction runs on the library executor
+    private static final int NO_COMPACTION = Integer.MAX_VALUE;
+
+    private File mDir;
+    private File mFile;
+    private File mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("journal", "");
+        mDir.delete();
+        mDir.mkdir();
+        mFile = new File(mDir, "prefs");
+        mJournal = new File(mDir, "prefs.journal");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles())
+            file.delete();
+        mDir.delete();
+    }
+
+    @Test
+    public void replaysAppliedValues() throws IOException {
+        writeValidRecords();
+
+        JournalPreferenceStore store = open();
+        assertValidValues(store);
+        assertEquals(mJournal.length(), store.getJournalSize());
+        store.close();
+    }
+
+    @Test
+    public void truncatedHeaderIsDropped() throws IOException {
+        long validSize = writeValidRecords();
+        append(new byte[]{0, 0, 0});
+
+        assertRecovered(validSize);
+    }
+
+    @Test
+    public void truncatedPayloadIsDropped() throws IOException {
+        long validSize = writeValidRecords();
+
+        JournalPreferenceStore store = open();
+        store.edit().putString("torn", "value").apply();
+        store.close();
+        truncate(mJournal.length() - 2);
+
+        assertRecovered(validSize);
+    }
+
+    @Test
+    public void badChecksumIsDropped() throws IOException {
+        long validSize = writeValidRecords();
+
+        JournalPreferenceStore store = open();
+        store.edit().putInt("torn", 1).apply();
+        store.close();
+        // Flip a bit of last payload byte
+        RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        } finally {
+            file.close();
+        }
+
+        assertRecovered(validSize);
+    }
+
+    @Test
+    public void zeroTailIsDropped() throws IOException {
+        long validSize = writeValidRecords();
+        append(new byte[64]);
+
+        assertRecovered(validSize);
+    }
+
+    @Test
+    public void zeroFileIsEmpty() throws IOException {
+        append(new byte[4096]);
+
+        JournalPreferenceStore store = open();
+        assertFalse(store.contains("int"));
+        assertEquals(0, mJournal.length());
+        store.close();
+    }
+
+    @Test
+    public void longStringSurvivesReopen() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100 * 1024; i++)
+            builder.append((char) ('a' + i % 26));
+        String value = builder.append('\u00e9').toString();
+
+        JournalPreferenceStore store = open();
+        store.edit().putString("long string", value).apply();
+        store.close();
+
+        store = open();
+        assertEquals(value, store.getString("long string", null));
+        store.close();
+    }
+
+    /**
+     * Reopen store, check the torn tail is gone and new records are appended after valid ones
+     */
+    private void assertRecovered(long validSize) throws IOException {
+        JournalPreferenceStore store = open();
+        assertValidValues(store);
+        assertFalse(store.contains("torn"));
+        assertEquals(validSize, mJournal.length());
+
+        store.edit().putInt("after", 42).apply();
+        store.close();
+
+        store = open();
+        assertValidValues(store);
+        assertEquals(42, store.getInt("after", 0));
+        store.close();
+    }
+
+    private long writeValidRecords() throws IOException {
+        JournalPreferenceStore store = open();
+        store.edit()
+                .putInt("int", 7)
+                .putLong("long", 1L << 40)
+                .putString("string", "value")
+                .apply();
+        store.edit().remove("string").putString("string", "other").apply();
+        store.close();
+        return mJournal.length();
+    }
+
+    private static void assertValidValues(JournalPreferenceStore store) {
+        assertEquals(7, store.getInt("int", 0));
+        assertEquals(1L << 40, store.getLong("long", 0));
+        assertEquals("other", store.getString("string", null));
+    }
+
+    private JournalPreferenceStore open() throws IOException {
+        return new JournalPreferenceStore(mFile, NO_COMPACTION);
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(mJournal, true);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+}
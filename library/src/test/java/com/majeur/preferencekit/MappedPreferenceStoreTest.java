@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class MappedPreferenceStoreTest {
+
+    // Header is magic, version, data end
+    private static final int OFFSET_DATA_END = 8;
+    private static final int HEADER_SIZE = 12;
+
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("mapped", "");
+        mDir.delete();
+        mDir.mkdir();
+        mFile = new File(mDir, "prefs");
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDir);
+    }
+
+    @Test
+    public void valuesSurviveReopen() throws IOException {
+        MappedPreferenceStore store = open();
+        store.edit()
+                .putInt("int", 7)
+                .putLong("long", 1L << 40)
+                .putString("short", "a rather long value")
+                .putString("long string", "a")
+                .apply();
+        // Rewritten in place, then appended
+        store.edit().putString("short", "b").putString("long string", "a value longer than its capacity").apply();
+        store.close();
+
+        store = open();
+        assertEquals(7, store.getInt("int", 0));
+        assertEquals(1L << 40, store.getLong("long", 0));
+        assertEquals("b", store.getString("short", null));
+        assertEquals("a value longer than its capacity", store.getString("long string", null));
+        store.close();
+    }
+
+    @Test
+    public void unpublishedRecordIsIgnored() throws IOException {
+        MappedPreferenceStore store = open();
+        store.edit().putInt("int", 7).apply();
+        store.close();
+        int dataEnd = readInt(OFFSET_DATA_END);
+
+        store = open();
+        store.edit().putString("string", "value").apply();
+        store.close();
+        // Process died before data end was written
+        writeInt(OFFSET_DATA_END, dataEnd);
+
+        store = open();
+        assertEquals(7, store.getInt("int", 0));
+        assertFalse(store.contains("string"));
+        store.close();
+    }
+
+    @Test
+    public void latestOfDuplicateRecordsWins() throws IOException {
+        MappedPreferenceStore store = open();
+        store.edit().putInt("key", 7).apply();
+        store.edit().putString("key", "value").apply();
+        store.close();
+        // Process died before first record was flagged deleted
+        writeByte(HEADER_SIZE, 0);
+
+        store = open();
+        assertEquals("value", store.getString("key", null));
+        store.close();
+    }
+
+    @Test
+    public void unknownTypeThrowsIOException() throws IOException {
+        MappedPreferenceStore store = open();
+        store.edit().putInt("k", 7).apply();
+        store.close();
+        // Flags, key length and one byte key precede type
+        writeByte(HEADER_SIZE + 4, 42);
+
+        assertOpenFails();
+    }
+
+    @Test
+    public void dataEndOutOfFileThrowsIOException() throws IOException {
+        open().close();
+        writeInt(OFFSET_DATA_END, Integer.MAX_VALUE);
+
+        assertOpenFails();
+    }
+
+    @Test
+    public void failedCompactionKeepsStoreUsable() throws IOException {
+        MappedPreferenceStore store = open();
+        store.edit().putInt("int", 7).apply();
+        // Temporary file cannot be created
+        assertTrue(new File(mFile.getPath() + ".tmp").mkdir());
+
+        try {
+            store.compact();
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertEquals(7, store.getInt("int", 0));
+        store.edit().putInt("int", 8).apply();
+        assertEquals(8, store.getInt("int", 0));
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsValues() throws IOException {
+        MappedPreferenceStore store = open();
+        for (int i = 0; i < 10; i++)
+            store.edit().putInt("int", i).putString("string", i % 2 == 0 ? "value" : null).apply();
+        store.edit().putLong("int", 42L).apply();
+        long size = readInt(OFFSET_DATA_END);
+
+        store.compact();
+        assertTrue(readInt(OFFSET_DATA_END) < size);
+        assertEquals(42L, store.getLong("int", 0));
+        store.close();
+    }
+
+    @Test
+    public void migrationIsDoneOnceAndHidden() throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("int", 7);
+        values.put("string", "value");
+        values.put("boolean", true);
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        doReturn(values).when(sharedPreferences).getAll();
+
+        MappedPreferenceStore store = open();
+        assertEquals(2, store.migrateFrom(sharedPreferences));
+        assertEquals(7, store.getInt("int", 0));
+        assertFalse(store.contains("migrated_from_shared_preferences"));
+        store.close();
+
+        store = open();
+        assertEquals(0, store.migrateFrom(sharedPreferences));
+        store.compact();
+        assertEquals(0, store.migrateFrom(sharedPreferences));
+        assertEquals("value", store.getString("string", null));
+        store.close();
+    }
+
+    private MappedPreferenceStore open() throws IOException {
+        return new MappedPreferenceStore(mFile);
+    }
+
+    private void assertOpenFails() {
+        try {
+            open();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private int readInt(long position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            file.seek(position);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeInt(long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeByte(long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.write(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2016 MajeurAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.majeur.preferencekit;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.preference.PreferenceManager;
+import android.util.AttributeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Count store writes per simulated drag. Framework classes are stubbed, the seek bar is never bound
+ * and delayed commits never run, so writes only come from progress changes and knob release.
+ */
+public class SeekBarPreferenceTest {
+
+    private static final int DRAG_STEPS = 20;
+
+    private CountingPreferenceStore mStore;
+    private SeekBarPreference mPreference;
+
+    @Before
+    public void setUp() {
+        mStore = new CountingPreferenceStore();
+        PreferenceKit.setPreferenceStore(mStore);
+
+        Context context = mock(Context.class);
+        when(context.obtainStyledAttributes(any(AttributeSet.class), any(int[].class), anyInt(), anyInt()))
+                .thenReturn(mock(TypedArray.class));
+
+        final PreferenceManager preferenceManager = mock(PreferenceManager.class);
+        mPreference = new SeekBarPreference(context) {
+            @Override
+            public String getKey() {
+                return "seekbar";
+            }
+
+            @Override
+            public boolean hasKey() {
+                return true;
+            }
+
+            @Override
+            public boolean isPersistent() {
+                return true;
+            }
+
+            @Override
+            public PreferenceManager getPreferenceManager() {
+                return preferenceManager;
+            }
+
+            @Override
+            protected boolean callChangeListener(Object newValue) {
+                return true;
+            }
+        };
+        mPreference.setMaxValue(100);
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceKit.setPreferenceStore(null);
+    }
+
+    @Test
+    public void immediateWritesEachChange() {
+        drag();
+        assertEquals(DRAG_STEPS, mStore.putCount);
+        assertEquals(DRAG_STEPS, mStore.getInt("seekbar", 0));
+    }
+
+    @Test
+    public void onReleaseWritesOnce() {
+        mPreference.setPersistMode(SeekBarPreference.PERSIST_ON_RELEASE);
+        drag();
+        assertEquals(1, mStore.putCount);
+        assertEquals(DRAG_STEPS, mStore.getInt("seekbar", 0));
+    }
+
+    @Test
+    public void onIdleWritesOnceOnRelease() {
+        mPreference.setPersistMode(SeekBarPreference.PERSIST_ON_IDLE);
+        drag();
+        assertEquals(1, mStore.putCount);
+        assertEquals(DRAG_STEPS, mStore.getInt("seekbar", 0));
+    }
+
+    @Test
+    public void progressSetByBindingIsNotWritten() {
+        mPreference.onProgressChanged(null, 42, false);
+        assertEquals(0, mStore.putCount);
+    }
+
+    @Test
+    public void unchangedProgressIsNotWritten() {
+        mPreference.onProgressChanged(null, 42, true);
+        mPreference.onProgressChanged(null, 42, true);
+        assertEquals(1, mStore.putCount);
+    }
+
+    private void drag() {
+        mPreference.onStartTrackingTouch(null);
+        for (int i = 1; i <= DRAG_STEPS; i++) {
+            mPreference.onProgressChanged(null, i, true);
+            // Seek bar reports the same progress again on rebind
+            mPreference.onProgressChanged(null, i, false);
+        }
+        mPreference.onStopTrackingTouch(null);
+    }
+}